@@ -0,0 +1,156 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves annotation relationship types to functional consequences and transcript biotypes once per type name
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public final class ConsequenceCatalogue {
+
+    /**
+     * Consequences in Ensembl VEP's order from most to least severe, which gives the rank. Severe is the separate cut used
+     * by the filters: splice region and synonymous variants are not severe although they rank above severe consequences.
+     */
+    public enum Consequence {
+        SPLICE_ACCEPTOR_VARIANT(true),
+        SPLICE_DONOR_VARIANT(true),
+        STOP_GAINED(true),
+        FRAMESHIFT_VARIANT(true),
+        STOP_LOST(true),
+        START_LOST(true),
+        INFRAME_INSERTION(true),
+        INFRAME_DELETION(true),
+        MISSENSE_VARIANT(true),
+        PROTEIN_ALTERING_VARIANT(true),
+        SPLICE_REGION_VARIANT(false),
+        INCOMPLETE_TERMINAL_CODON_VARIANT(true),
+        STOP_RETAINED_VARIANT(true),
+        SYNONYMOUS_VARIANT(false),
+        CODING_SEQUENCE_VARIANT(true),
+        FIVE_PRIME_UTR_VARIANT(false, "5_PRIME_UTR_VARIANT"),
+        THREE_PRIME_UTR_VARIANT(false, "3_PRIME_UTR_VARIANT"),
+        INTRON_VARIANT(false),
+        UPSTREAM_GENE_VARIANT(false),
+        DOWNSTREAM_GENE_VARIANT(false),
+        UNKNOWN(null);
+
+        private final Boolean severe;
+        private final String consequenceName;
+        private final int rank;
+
+        Consequence(Boolean severe) {
+            this(severe, null);
+        }
+        Consequence(Boolean severe, String consequenceName) {
+            this.severe = severe;
+            this.consequenceName = consequenceName == null ? name() : consequenceName;
+            this.rank = ordinal();
+        }
+
+        /**
+         * @return true or false for known consequences, null otherwise
+         */
+        public Boolean isSevere() {
+            return severe;
+        }
+        /**
+         * @return 0 for the most severe consequence; unknown consequences rank last
+         */
+        public int getRank() {
+            return rank;
+        }
+    }
+
+    public static final class Entry {
+        private final String name;
+        private final Consequence consequence;
+
+        private Entry(String name, Consequence consequence) {
+            this.name = name;
+            this.consequence = consequence;
+        }
+
+        public String getName() {
+            return name;
+        }
+        public Consequence getConsequence() {
+            return consequence;
+        }
+        public Boolean isSevere() {
+            return consequence.isSevere();
+        }
+        public int getRank() {
+            return consequence.getRank();
+        }
+    }
+
+    //keyed by type name; relationship type tokens are not guaranteed to be the same instance between calls
+    private static final ConcurrentHashMap<String, Entry> consequences = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> biotypes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Consequence> consequencesByName = new ConcurrentHashMap<>();
+
+    static {
+        for (Consequence consequence : Consequence.values()) {
+            if (consequence != Consequence.UNKNOWN) consequencesByName.put(consequence.consequenceName, consequence);
+        }
+    }
+
+    private ConsequenceCatalogue() {
+    }
+
+    public static Entry getConsequence(RelationshipType consequenceRelType) {
+        Entry entry = consequences.get(consequenceRelType.name());
+        if (entry != null) return entry;
+
+        String consequenceRelName = consequenceRelType.name();
+        String name = consequenceRelName.length() > 12 && consequenceRelName.startsWith("HAS_") && consequenceRelName.endsWith("_CONSEQUENCE") ?
+                consequenceRelName.substring(4, consequenceRelName.length() - 12) : consequenceRelName;
+        Consequence consequence = consequencesByName.get(name);
+
+        entry = new Entry(name, consequence == null ? Consequence.UNKNOWN : consequence);
+        Entry existing = consequences.putIfAbsent(consequenceRelName, entry);
+
+        return existing == null ? entry : existing;
+    }
+
+    /**
+     * @return the severe consequence names, which change whenever the severity table does
+     */
+    public static String getSeverityFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+
+        for (Consequence consequence : Consequence.values()) {
+            if (consequence.isSevere() == Boolean.TRUE) {
+                if (fingerprint.length() > 0) fingerprint.append(',');
+                fingerprint.append(consequence.consequenceName);
+            }
+        }
+
+        return fingerprint.toString();
+    }
+
+    /**
+     * @return true for the consequence and biotype relationships written by annotation imports
+     */
+    public static boolean isAnnotationRelationship(RelationshipType relType) {
+        String relName = relType.name();
+        return relName.startsWith("HAS_") && (relName.endsWith("_CONSEQUENCE") || relName.endsWith("_BIOTYPE"));
+    }
+
+    public static String getBiotype(RelationshipType biotypeRelType) {
+        String biotype = biotypes.get(biotypeRelType.name());
+        if (biotype != null) return biotype;
+
+        String biotypeRelName = biotypeRelType.name();
+        biotype = biotypeRelName.length() > 12 ? biotypeRelName.substring(4, biotypeRelName.length() - 8) : biotypeRelName;
+        biotypes.putIfAbsent(biotypeRelName, biotype);
+
+        return biotype;
+    }
+
+}
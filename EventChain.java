@@ -0,0 +1,170 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable summary of the user event chain attached to a subject node, read in a single pass
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public class EventChain {
+
+    public static class Event {
+        private final Node eventNode;
+        private final VariantDatabasePlugin.UserEventStatus status;
+        private final Node addedByUserNode;
+        private final long addedDate;
+        private final Node authUserNode;
+        private final Long authDate;
+
+        private Event(Node eventNode, VariantDatabasePlugin.UserEventStatus status, Node addedByUserNode, long addedDate, Node authUserNode, Long authDate) {
+            this.eventNode = eventNode;
+            this.status = status;
+            this.addedByUserNode = addedByUserNode;
+            this.addedDate = addedDate;
+            this.authUserNode = authUserNode;
+            this.authDate = authDate;
+        }
+
+        public Node getEventNode() {
+            return eventNode;
+        }
+        public VariantDatabasePlugin.UserEventStatus getStatus() {
+            return status;
+        }
+        public Node getAddedByUserNode() {
+            return addedByUserNode;
+        }
+        public long getAddedDate() {
+            return addedDate;
+        }
+        public Node getAuthUserNode() {
+            return authUserNode;
+        }
+        public Long getAuthDate() {
+            return authDate;
+        }
+    }
+
+    private final Node subjectNode;
+    private final List<Event> events;
+    private final Event lastEvent;
+    private final Event lastActiveEvent;
+
+    private EventChain(Node subjectNode, List<Event> events, Event lastActiveEvent) {
+        this.subjectNode = subjectNode;
+        this.events = Collections.unmodifiableList(events);
+        this.lastEvent = events.isEmpty() ? null : events.get(events.size() - 1);
+        this.lastActiveEvent = lastActiveEvent;
+    }
+
+    /**
+     * Walks the chain from the subject node. Must be called inside a transaction.
+     */
+    public static EventChain read(Node subjectNode) {
+        ArrayList<Event> events = new ArrayList<>();
+        Event lastActiveEvent = null;
+
+        Node eventNode = getNextEventNode(subjectNode);
+
+        while (eventNode != null) {
+            Relationship addedByRelationship = eventNode.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
+            Relationship authorisedByRelationship = eventNode.getSingleRelationship(VariantDatabase.getAuthorisedByRelationship(), Direction.OUTGOING);
+            Relationship rejectedByRelationship = eventNode.getSingleRelationship(VariantDatabase.getRejectedByRelationship(), Direction.OUTGOING);
+
+            VariantDatabasePlugin.UserEventStatus status = getUserEventStatus(authorisedByRelationship, rejectedByRelationship);
+            Relationship authRelationship = null;
+
+            if (status == VariantDatabasePlugin.UserEventStatus.ACTIVE) {
+                authRelationship = authorisedByRelationship;
+            } else if (status == VariantDatabasePlugin.UserEventStatus.REJECTED) {
+                authRelationship = rejectedByRelationship;
+            }
+
+            Event event = new Event(
+                    eventNode,
+                    status,
+                    addedByRelationship.getEndNode(),
+                    (long) addedByRelationship.getProperty("date"),
+                    authRelationship == null ? null : authRelationship.getEndNode(),
+                    authRelationship == null ? null : (Long) authRelationship.getProperty("date")
+            );
+
+            events.add(event);
+            if (status == VariantDatabasePlugin.UserEventStatus.ACTIVE) lastActiveEvent = event;
+
+            eventNode = getNextEventNode(eventNode);
+        }
+
+        return new EventChain(subjectNode, events, lastActiveEvent);
+    }
+
+    /**
+     * Derives the status of a single event node. Must be called inside a transaction.
+     */
+    public static VariantDatabasePlugin.UserEventStatus getUserEventStatus(Node eventNode) {
+        return getUserEventStatus(
+                eventNode.getSingleRelationship(VariantDatabase.getAuthorisedByRelationship(), Direction.OUTGOING),
+                eventNode.getSingleRelationship(VariantDatabase.getRejectedByRelationship(), Direction.OUTGOING)
+        );
+    }
+
+    private static VariantDatabasePlugin.UserEventStatus getUserEventStatus(Relationship authorisedByRelationship, Relationship rejectedByRelationship) {
+
+        if (authorisedByRelationship == null && rejectedByRelationship == null){
+            return VariantDatabasePlugin.UserEventStatus.PENDING_AUTH;
+        }
+
+        if (authorisedByRelationship != null && rejectedByRelationship == null){
+            return VariantDatabasePlugin.UserEventStatus.ACTIVE;
+        }
+
+        if (authorisedByRelationship == null && rejectedByRelationship != null){
+            return VariantDatabasePlugin.UserEventStatus.REJECTED;
+        }
+
+        return null;
+    }
+
+    private static Node getNextEventNode(Node node) {
+        Node nextEventNode = null;
+
+        //a forked chain follows the last branch, matching the previous depth-first traversal
+        for (Relationship hasUserEventRelationship : node.getRelationships(Direction.OUTGOING, VariantDatabase.getHasUserEventRelationship())) {
+            nextEventNode = hasUserEventRelationship.getEndNode();
+        }
+
+        return nextEventNode;
+    }
+
+    public Node getSubjectNode() {
+        return subjectNode;
+    }
+    public List<Event> getEvents() {
+        return events;
+    }
+    public Event getLastEvent() {
+        return lastEvent;
+    }
+    public Event getLastActiveEvent() {
+        return lastActiveEvent;
+    }
+
+    /**
+     * @return the last event node or the subject node when the chain is empty, so it can be appended to
+     */
+    public Node getLastEventNode() {
+        return lastEvent == null ? subjectNode : lastEvent.getEventNode();
+    }
+    public Node getLastActiveEventNode() {
+        return lastActiveEvent == null ? null : lastActiveEvent.getEventNode();
+    }
+
+}
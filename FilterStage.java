@@ -0,0 +1,234 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A reusable workflow predicate over a call, with selectivity and cost measured across requests
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public abstract class FilterStage {
+
+    public enum Verdict {
+        CONTINUE, //call passes this stage
+        REJECT, //call fails this stage
+        PASS //call skips the remaining stages
+    }
+
+    public static final class Statistics {
+        private final AtomicLong evaluated = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong timed = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        private void add(long evaluated, long rejected, long timed, long nanos) {
+            this.evaluated.addAndGet(evaluated);
+            this.rejected.addAndGet(rejected);
+            this.timed.addAndGet(timed);
+            this.nanos.addAndGet(nanos);
+        }
+
+        public long getEvaluated() {
+            return evaluated.get();
+        }
+        public long getRejected() {
+            return rejected.get();
+        }
+        public long getTimed() {
+            return timed.get();
+        }
+        public long getNanos() {
+            return nanos.get();
+        }
+    }
+
+    /**
+     * Evaluates a request's gates and strata on one thread with plain counters, folded into the shared statistics by merge
+     */
+    public static final class Evaluator {
+        private final FilterStage[] gates;
+        private final FilterStage[] strata;
+        private final int[] strataOrder;
+        private final long[] evaluated, rejected, timed, nanos;
+
+        public Evaluator(List<FilterStage> gates, FilterStage[] strata) {
+            this.gates = gates.toArray(new FilterStage[gates.size()]);
+            this.strata = strata;
+            this.strataOrder = plan(strata);
+
+            int stages = this.gates.length + strata.length;
+            this.evaluated = new long[stages];
+            this.rejected = new long[stages];
+            this.timed = new long[stages];
+            this.nanos = new long[stages];
+        }
+
+        /**
+         * @return false if any gate rejects the call
+         */
+        public boolean passes(VariantDatabasePlugin.ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+            for (int i = 0; i < gates.length; ++i){
+                if (test(i, gates[i], ctx, variantNode, inheritanceRel) == Verdict.REJECT) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Strata run in planned order, skipping any after the lowest that has already decided the call, so the result
+         * matches evaluating them in the order given
+         *
+         * @return the index of the first stratum rejecting the call, or the number of strata if none does or one passes it first
+         */
+        public int getStratum(VariantDatabasePlugin.ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+            int decided = strata.length, stratum = strata.length;
+
+            for (int i : strataOrder){
+                if (i >= decided) continue;
+
+                Verdict verdict = test(gates.length + i, strata[i], ctx, variantNode, inheritanceRel);
+                if (verdict == Verdict.REJECT) {
+                    decided = i;
+                    stratum = i;
+                } else if (verdict == Verdict.PASS) {
+                    decided = i;
+                    stratum = strata.length;
+                }
+            }
+
+            return stratum;
+        }
+
+        /**
+         * Adds this thread's counts to the shared statistics and resets them
+         */
+        public void merge() {
+            for (int i = 0; i < evaluated.length; ++i){
+                FilterStage stage = i < gates.length ? gates[i] : strata[i - gates.length];
+                stage.stageStatistics.add(evaluated[i], rejected[i], timed[i], nanos[i]);
+            }
+
+            Arrays.fill(evaluated, 0);
+            Arrays.fill(rejected, 0);
+            Arrays.fill(timed, 0);
+            Arrays.fill(nanos, 0);
+        }
+
+        private Verdict test(int i, FilterStage stage, VariantDatabasePlugin.ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+            Verdict verdict;
+
+            //a clock read costs about as much as a cheap stage, so only a sample of calls is timed
+            if ((evaluated[i]++ & TIMING_SAMPLE_MASK) == 0) {
+                long start = System.nanoTime();
+                verdict = stage.evaluate(ctx, variantNode, inheritanceRel);
+                nanos[i] += System.nanoTime() - start;
+                timed[i]++;
+            } else {
+                verdict = stage.evaluate(ctx, variantNode, inheritanceRel);
+            }
+
+            if (verdict == Verdict.REJECT) rejected[i]++;
+            return verdict;
+        }
+    }
+
+    //stages keep the order they were given until each has been measured this many times
+    private static final long MIN_SAMPLES = 1000;
+
+    //one call in this many plus one is timed
+    private static final long TIMING_SAMPLE_MASK = 15;
+
+    //stages named after their parameters stop being measured across requests past this many names
+    private static final int MAX_STATISTICS = 1024;
+
+    private static final ConcurrentHashMap<String, Statistics> statistics = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Statistics stageStatistics;
+
+    /**
+     * @param name identifies the stage's statistics; stages with different parameters need different names
+     */
+    protected FilterStage(String name) {
+        this.name = name;
+
+        Statistics stageStatistics = new Statistics();
+        Statistics existing = statistics.size() < MAX_STATISTICS ? statistics.putIfAbsent(name, stageStatistics) : statistics.get(name);
+        this.stageStatistics = existing == null ? stageStatistics : existing;
+    }
+
+    protected abstract Verdict evaluate(VariantDatabasePlugin.ReadContext ctx, Node variantNode, Relationship inheritanceRel);
+
+    public String getName() {
+        return name;
+    }
+
+    public double getRejectionRate() {
+        long evaluated = stageStatistics.getEvaluated();
+        return evaluated == 0 ? 0 : (double) stageStatistics.getRejected() / evaluated;
+    }
+
+    public double getCostNanos() {
+        long timed = stageStatistics.getTimed();
+        return timed == 0 ? 0 : (double) stageStatistics.getNanos() / timed;
+    }
+
+    /**
+     * Orders independent gating stages so the expected cost of rejecting a call is lowest: cheap, selective stages first.
+     * Until every stage has been measured they are returned in the order given.
+     */
+    public static List<FilterStage> plan(List<FilterStage> stages) {
+        ArrayList<FilterStage> planned = new ArrayList<>(stages);
+
+        for (FilterStage stage : planned) {
+            if (stage.stageStatistics.getEvaluated() < MIN_SAMPLES) return planned;
+        }
+
+        Collections.sort(planned, new Comparator<FilterStage>() {
+            @Override
+            public int compare(FilterStage a, FilterStage b) {
+                return Double.compare(getRank(a), getRank(b));
+            }
+        });
+
+        return planned;
+    }
+
+    /**
+     * Orders strata the same way as gates. The order only changes cost: Evaluator.getStratum reports the stratum the
+     * order given would have.
+     *
+     * @return indices into strata in the order to evaluate them
+     */
+    public static int[] plan(FilterStage[] strata) {
+        List<FilterStage> planned = plan(Arrays.asList(strata));
+        int[] order = new int[strata.length];
+
+        for (int i = 0; i < order.length; ++i) {
+            for (int j = 0; j < strata.length; ++j) {
+                if (strata[j] == planned.get(i)) order[i] = j;
+            }
+        }
+
+        return order;
+    }
+
+    public static Map<String, Statistics> getStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    private static double getRank(FilterStage stage) {
+        return stage.getCostNanos() / Math.max(stage.getRejectionRate(), 0.001);
+    }
+
+}
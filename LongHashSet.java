@@ -0,0 +1,118 @@
+package nhs.genetics.cardiff;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash set of primitive longs with linear probing
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private boolean containsEmpty = false;
+    private int size = 0;
+
+    public LongHashSet() {
+        this(16);
+    }
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 < expectedSize * 4) capacity <<= 1;
+        keys = new long[capacity];
+    }
+
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmpty) return false;
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) return false;
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        size++;
+
+        //keep load factor under three quarters
+        if (size * 4 > keys.length * 3) resize(keys.length << 1);
+
+        return true;
+    }
+
+    public void addAll(LongHashSet other) {
+        if (other.containsEmpty) add(EMPTY);
+        for (long key : other.keys) {
+            if (key != EMPTY) add(key);
+        }
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) return containsEmpty;
+
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) return true;
+            i = (i + 1) & mask;
+        }
+
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long[] toArray() {
+        long[] values = new long[size];
+        int n = 0;
+
+        if (containsEmpty) values[n++] = EMPTY;
+        for (long key : keys) {
+            if (key != EMPTY) values[n++] = key;
+        }
+
+        Arrays.sort(values);
+        return values;
+    }
+
+    public long sizeInBytes() {
+        return 16 + 16 + (keys.length * 8L);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int mask = capacity - 1;
+
+        keys = new long[capacity];
+
+        for (long key : oldKeys) {
+            if (key == EMPTY) continue;
+
+            int i = mix(key) & mask;
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = key;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
@@ -32,4 +32,9 @@ public class Parameters {
     public String userId;
     public String password;
     public String workflowName;
+    public Float maxAlleleFrequency;
+    public Integer pageSize;
+    public String cursor;
+    public UserEventAuth[] userEventAuths;
+    public VariantClassification[] variantClassifications;
 }
@@ -0,0 +1,232 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.logging.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An off-heap columnar copy of variant population allele frequencies, one float column per population keyed by sorted variant node id
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public class PopulationFrequencyStore {
+
+    private static final VariantDatabase.kGPhase3Population[] kGPhase3Populations = VariantDatabase.kGPhase3Population.values();
+    private static final VariantDatabase.exacPopulation[] exacPopulations = VariantDatabase.exacPopulation.values();
+
+    private static final class Columns {
+        private final long[] variantNodeIds;
+        private final FloatBuffer[] kGPhase3Afs;
+        private final FloatBuffer[] exacAfs;
+        private final FloatBuffer maxKgAfs;
+        private final FloatBuffer maxExacAfs;
+
+        private Columns(long[] variantNodeIds) {
+            this.variantNodeIds = variantNodeIds;
+            this.kGPhase3Afs = new FloatBuffer[kGPhase3Populations.length];
+            this.exacAfs = new FloatBuffer[exacPopulations.length];
+
+            for (int i = 0; i < kGPhase3Afs.length; ++i) kGPhase3Afs[i] = allocate(variantNodeIds.length);
+            for (int i = 0; i < exacAfs.length; ++i) exacAfs[i] = allocate(variantNodeIds.length);
+
+            this.maxKgAfs = allocate(variantNodeIds.length);
+            this.maxExacAfs = allocate(variantNodeIds.length);
+        }
+
+        private static FloatBuffer allocate(int rows) {
+            return ByteBuffer.allocateDirect(rows * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    private static final Columns EMPTY = new Columns(new long[0]);
+
+    //variants changed since the columns were loaded, mapped to the generation they changed in
+    private final ConcurrentHashMap<Long, Long> dirtyVariantNodeIds = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicBoolean building = new AtomicBoolean(false);
+
+    private volatile Columns columns = EMPTY;
+    private volatile boolean ready = false;
+    private volatile GraphDatabaseService graphDb;
+    private volatile Log logger;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Loads every variant's population frequencies. Must be called inside a transaction.
+     */
+    public void build(GraphDatabaseService graphDb, Log logger) {
+        this.graphDb = graphDb;
+        this.logger = logger;
+
+        if (!building.compareAndSet(false, true)) return;
+
+        try {
+            long startGeneration = generation.get();
+            long[] variantNodeIds = new long[1024];
+            int rows = 0;
+
+            try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getVariantLabel())) {
+                while (iter.hasNext()) {
+                    if (rows == variantNodeIds.length) variantNodeIds = Arrays.copyOf(variantNodeIds, rows * 2);
+                    variantNodeIds[rows++] = iter.next().getId();
+                }
+            }
+
+            variantNodeIds = Arrays.copyOf(variantNodeIds, rows);
+            Arrays.sort(variantNodeIds);
+
+            Columns built = new Columns(variantNodeIds);
+
+            for (int row = 0; row < rows; ++row) {
+                load(built, row, graphDb.getNodeById(variantNodeIds[row]));
+            }
+
+            columns = built;
+            ready = true;
+
+            //changes committed while loading may or may not have been read
+            for (Long variantNodeId : dirtyVariantNodeIds.keySet()) {
+                Long changedGeneration = dirtyVariantNodeIds.get(variantNodeId);
+                if (changedGeneration != null && changedGeneration <= startGeneration) dirtyVariantNodeIds.remove(variantNodeId, changedGeneration);
+            }
+
+            logger.info("Loaded population frequencies for " + rows + " variants using " + sizeInBytes() + " bytes");
+
+        } finally {
+            building.set(false);
+        }
+
+    }
+
+    /**
+     * @return the row holding the variant or -1 if the variant is not loaded or has changed since loading
+     */
+    public int getRow(long variantNodeId) {
+        if (!ready || dirtyVariantNodeIds.containsKey(variantNodeId)) return -1;
+
+        int row = Arrays.binarySearch(columns.variantNodeIds, variantNodeId);
+        return row < 0 ? -1 : row;
+    }
+
+    /**
+     * @return the allele frequency or NaN when the population has no value
+     */
+    public float getKgAf(int row, int population) {
+        return columns.kGPhase3Afs[population].get(row);
+    }
+    public float getExacAf(int row, int population) {
+        return columns.exacAfs[population].get(row);
+    }
+    public float getMaxKgAf(int row) {
+        return columns.maxKgAfs.get(row);
+    }
+    public float getMaxExacAf(int row) {
+        return columns.maxExacAfs.get(row);
+    }
+
+    public int getVariantCount() {
+        return columns.variantNodeIds.length;
+    }
+    public int getDirtyCount() {
+        return dirtyVariantNodeIds.size();
+    }
+
+    public long sizeInBytes() {
+        return columns.variantNodeIds.length * (8L + 4L * (kGPhase3Populations.length + exacPopulations.length + 2));
+    }
+
+    public TransactionEventHandler<?> getTransactionEventHandler() {
+        return new TransactionEventHandler.Adapter<HashSet<Long>>() {
+
+            @Override
+            public HashSet<Long> beforeCommit(TransactionData data) throws Exception {
+                HashSet<Long> variantNodeIds = new HashSet<>();
+
+                for (PropertyEntry<Node> propertyEntry : data.assignedNodeProperties()) {
+                    if (isPopulationFrequencyKey(propertyEntry.key())) variantNodeIds.add(propertyEntry.entity().getId());
+                }
+                for (PropertyEntry<Node> propertyEntry : data.removedNodeProperties()) {
+                    if (isPopulationFrequencyKey(propertyEntry.key())) variantNodeIds.add(propertyEntry.entity().getId());
+                }
+
+                return variantNodeIds;
+            }
+
+            @Override
+            public void afterCommit(TransactionData data, HashSet<Long> variantNodeIds) {
+                if (variantNodeIds == null || variantNodeIds.isEmpty()) return;
+
+                long changedGeneration = generation.incrementAndGet();
+                for (Long variantNodeId : variantNodeIds) dirtyVariantNodeIds.put(variantNodeId, changedGeneration);
+
+                //an annotation import has replaced a large share of the columns
+                if (ready && dirtyVariantNodeIds.size() > Math.max(10000, columns.variantNodeIds.length / 10)) {
+                    buildInBackground(graphDb, logger);
+                }
+            }
+
+        };
+    }
+
+    public void buildInBackground(final GraphDatabaseService graphDb, final Log logger) {
+        if (graphDb == null || building.get()) return;
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Transaction tx = graphDb.beginTx()) {
+                    build(graphDb, logger);
+                } catch (Exception e) {
+                    logger.error("Could not load population frequencies: " + e.getMessage());
+                }
+            }
+        }, "population-frequency-store");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static boolean isPopulationFrequencyKey(String key) {
+        return key.endsWith("Af") && (key.startsWith("kGPhase3") || key.startsWith("exac"));
+    }
+
+    private static void load(Columns columns, int row, Node variantNode) {
+        float maxAf = 0f;
+
+        for (int i = 0; i < kGPhase3Populations.length; ++i) {
+            Object af = variantNode.getProperty("kGPhase3" + kGPhase3Populations[i].toString() + "Af", null);
+
+            columns.kGPhase3Afs[i].put(row, af == null ? Float.NaN : (float) af);
+            if (af != null && (float) af > maxAf) maxAf = (float) af;
+        }
+        columns.maxKgAfs.put(row, maxAf);
+
+        maxAf = 0f;
+        for (int i = 0; i < exacPopulations.length; ++i) {
+            Object af = variantNode.getProperty("exac" + exacPopulations[i].toString() + "Af", null);
+
+            columns.exacAfs[i].put(row, af == null ? Float.NaN : (float) af);
+            if (af != null && (float) af > maxAf) maxAf = (float) af;
+        }
+        columns.maxExacAfs.put(row, maxAf);
+    }
+
+}
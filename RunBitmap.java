@@ -0,0 +1,333 @@
+package nhs.genetics.cardiff;
+
+import java.util.Arrays;
+
+/**
+ * An immutable compressed bitmap of run ordinals, laid out like a Roaring bitmap: values are split into
+ * 2^16 chunks keyed by their high bits, sparse chunks are stored as sorted arrays and dense chunks as bitsets
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public final class RunBitmap {
+
+    private static final int ARRAY_CONTAINER_MAX = 4096;
+    private static final int BITMAP_CONTAINER_WORDS = 1024;
+
+    public static final RunBitmap EMPTY = new RunBitmap(new char[0], new Object[0], new int[0]);
+
+    private final char[] keys;
+    private final Object[] containers; //char[] sorted low bits or long[] bitset
+    private final int[] cardinalities;
+
+    private RunBitmap(char[] keys, Object[] containers, int[] cardinalities) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinalities = cardinalities;
+    }
+
+    /**
+     * @param values ascending, distinct values
+     */
+    public static RunBitmap fromSorted(int[] values, int offset, int length) {
+        RunBitmap runBitmap = EMPTY;
+        int i = offset, end = offset + length;
+
+        while (i < end) {
+            char high = (char) (values[i] >>> 16);
+            int j = i;
+
+            while (j < end && (char) (values[j] >>> 16) == high) j++;
+
+            Object container;
+            if (j - i > ARRAY_CONTAINER_MAX) {
+                long[] bitmap = new long[BITMAP_CONTAINER_WORDS];
+                for (int n = i; n < j; ++n) bitmap[(char) values[n] >>> 6] |= 1L << values[n];
+                container = bitmap;
+            } else {
+                char[] array = new char[j - i];
+                for (int n = i; n < j; ++n) array[n - i] = (char) values[n];
+                container = array;
+            }
+
+            runBitmap = new RunBitmap(
+                    append(runBitmap.keys, high),
+                    append(runBitmap.containers, container),
+                    append(runBitmap.cardinalities, j - i)
+            );
+
+            i = j;
+        }
+
+        return runBitmap;
+    }
+
+    public static RunBitmap of(int... values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        int length = 0;
+        for (int i = 0; i < sorted.length; ++i) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[length++] = sorted[i];
+        }
+
+        return fromSorted(sorted, 0, length);
+    }
+
+    public boolean contains(int value) {
+        int i = Arrays.binarySearch(keys, (char) (value >>> 16));
+        return i >= 0 && containerContains(containers[i], (char) value);
+    }
+
+    public RunBitmap with(int value) {
+        char high = (char) (value >>> 16), low = (char) value;
+        int i = Arrays.binarySearch(keys, high);
+
+        if (i < 0) {
+            int at = -i - 1;
+            return new RunBitmap(insert(keys, at, high), insert(containers, at, new char[]{low}), insert(cardinalities, at, 1));
+        }
+
+        if (containerContains(containers[i], low)) return this;
+
+        Object[] newContainers = containers.clone();
+        int[] newCardinalities = cardinalities.clone();
+
+        newContainers[i] = containerWith(containers[i], low, cardinalities[i]);
+        newCardinalities[i]++;
+
+        return new RunBitmap(keys, newContainers, newCardinalities);
+    }
+
+    public RunBitmap without(int value) {
+        char high = (char) (value >>> 16), low = (char) value;
+        int i = Arrays.binarySearch(keys, high);
+
+        if (i < 0 || !containerContains(containers[i], low)) return this;
+
+        if (cardinalities[i] == 1) {
+            return new RunBitmap(remove(keys, i), remove(containers, i), remove(cardinalities, i));
+        }
+
+        Object[] newContainers = containers.clone();
+        int[] newCardinalities = cardinalities.clone();
+
+        newContainers[i] = containerWithout(containers[i], low, cardinalities[i]);
+        newCardinalities[i]--;
+
+        return new RunBitmap(keys, newContainers, newCardinalities);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int c : cardinalities) cardinality += c;
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public int andCardinality(RunBitmap other) {
+        return and(other, false);
+    }
+
+    public boolean intersects(RunBitmap other) {
+        return and(other, true) > 0;
+    }
+
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int n = 0;
+
+        for (int i = 0; i < keys.length; ++i) {
+            int high = keys[i] << 16;
+
+            if (containers[i] instanceof long[]) {
+                long[] bitmap = (long[]) containers[i];
+
+                for (int w = 0; w < bitmap.length; ++w) {
+                    long word = bitmap[w];
+                    while (word != 0) {
+                        values[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+
+            } else {
+                for (char low : (char[]) containers[i]) values[n++] = high | low;
+            }
+
+        }
+
+        return values;
+    }
+
+    public long sizeInBytes() {
+        long bytes = 16 + 16 + (keys.length * 2) + 16 + (containers.length * 4) + 16 + (cardinalities.length * 4);
+
+        for (Object container : containers) {
+            bytes += 16 + (container instanceof long[] ? ((long[]) container).length * 8 : ((char[]) container).length * 2);
+        }
+
+        return bytes;
+    }
+
+    private int and(RunBitmap other, boolean stopAtFirst) {
+        int cardinality = 0, i = 0, j = 0;
+
+        while (i < keys.length && j < other.keys.length) {
+
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                cardinality += containerAndCardinality(containers[i], other.containers[j]);
+                if (stopAtFirst && cardinality > 0) return cardinality;
+                i++;
+                j++;
+            }
+
+        }
+
+        return cardinality;
+    }
+
+    private static int containerAndCardinality(Object a, Object b) {
+        int cardinality = 0;
+
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a, y = (long[]) b;
+            for (int w = 0; w < x.length; ++w) cardinality += Long.bitCount(x[w] & y[w]);
+        } else if (a instanceof long[]) {
+            for (char low : (char[]) b) if (containerContains(a, low)) cardinality++;
+        } else if (b instanceof long[]) {
+            for (char low : (char[]) a) if (containerContains(b, low)) cardinality++;
+        } else {
+            char[] x = (char[]) a, y = (char[]) b;
+            int i = 0, j = 0;
+
+            while (i < x.length && j < y.length) {
+                if (x[i] < y[j]) {
+                    i++;
+                } else if (x[i] > y[j]) {
+                    j++;
+                } else {
+                    cardinality++;
+                    i++;
+                    j++;
+                }
+            }
+        }
+
+        return cardinality;
+    }
+
+    private static boolean containerContains(Object container, char low) {
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, low) >= 0;
+    }
+
+    private static Object containerWith(Object container, char low, int cardinality) {
+
+        if (container instanceof long[]) {
+            long[] bitmap = ((long[]) container).clone();
+            bitmap[low >>> 6] |= 1L << low;
+            return bitmap;
+        }
+
+        char[] array = (char[]) container;
+
+        //promote to bitset
+        if (cardinality + 1 > ARRAY_CONTAINER_MAX) {
+            long[] bitmap = new long[BITMAP_CONTAINER_WORDS];
+            for (char c : array) bitmap[c >>> 6] |= 1L << c;
+            bitmap[low >>> 6] |= 1L << low;
+            return bitmap;
+        }
+
+        return insert(array, -Arrays.binarySearch(array, low) - 1, low);
+    }
+
+    private static Object containerWithout(Object container, char low, int cardinality) {
+
+        if (container instanceof long[]) {
+            long[] bitmap = ((long[]) container).clone();
+            bitmap[low >>> 6] &= ~(1L << low);
+
+            //demote to array
+            if (cardinality - 1 <= ARRAY_CONTAINER_MAX) {
+                char[] array = new char[cardinality - 1];
+                int n = 0;
+
+                for (int w = 0; w < bitmap.length; ++w) {
+                    long word = bitmap[w];
+                    while (word != 0) {
+                        array[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+
+                return array;
+            }
+
+            return bitmap;
+        }
+
+        char[] array = (char[]) container;
+        return remove(array, Arrays.binarySearch(array, low));
+    }
+
+    private static char[] insert(char[] array, int at, char value) {
+        char[] copy = new char[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+    private static int[] insert(int[] array, int at, int value) {
+        int[] copy = new int[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+    private static Object[] insert(Object[] array, int at, Object value) {
+        Object[] copy = new Object[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+    private static char[] remove(char[] array, int at) {
+        char[] copy = new char[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, array.length - at - 1);
+        return copy;
+    }
+    private static int[] remove(int[] array, int at) {
+        int[] copy = new int[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, array.length - at - 1);
+        return copy;
+    }
+    private static Object[] remove(Object[] array, int at) {
+        Object[] copy = new Object[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, array.length - at - 1);
+        return copy;
+    }
+    private static char[] append(char[] array, char value) {
+        return insert(array, array.length, value);
+    }
+    private static int[] append(int[] array, int value) {
+        return insert(array, array.length, value);
+    }
+    private static Object[] append(Object[] array, Object value) {
+        return insert(array, array.length, value);
+    }
+
+}
@@ -0,0 +1,12 @@
+package nhs.genetics.cardiff;
+
+/**
+ * A POJO for REST de-serialisation
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public class UserEventAuth {
+    public Long eventNodeId;
+    public Boolean addOrRemove;
+}
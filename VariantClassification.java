@@ -0,0 +1,13 @@
+package nhs.genetics.cardiff;
+
+/**
+ * A POJO for REST de-serialisation
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public class VariantClassification {
+    public Long variantNodeId;
+    public Integer classification;
+    public String evidence;
+}
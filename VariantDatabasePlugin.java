@@ -5,12 +5,20 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
@@ -22,6 +30,12 @@ import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
 
 import org.neo4j.graphdb.traversal.*;
 import org.neo4j.logging.Log;
@@ -33,6 +47,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.DatatypeConverter;
 
 /**
  * A class for querying a Neo4j DB with variant data
@@ -44,10 +59,152 @@ import javax.ws.rs.core.StreamingOutput;
 @Path("/variantdatabase")
 public class VariantDatabasePlugin
 {
-    private enum UserEventStatus {
+    enum UserEventStatus {
         PENDING_AUTH, ACTIVE, REJECTED
     }
 
+    private enum QcStatus {
+        PASS, FAIL, PENDING
+    }
+
+    /**
+     * OMIM disorders associated with a symbol, with their names pre-joined for reports
+     */
+    private static final class SymbolDisorders {
+        private static final SymbolDisorders NONE = new SymbolDisorders(new String[0]);
+
+        private final String[] disorders;
+        private final String joined;
+
+        private SymbolDisorders(String[] disorders) {
+            StringBuilder joined = new StringBuilder();
+            for (String disorder : disorders) joined.append(disorder).append(';');
+
+            this.disorders = disorders;
+            this.joined = joined.toString();
+        }
+    }
+
+    /**
+     * One read transaction for a request, with lookups repeated across rows memoised until it closes
+     */
+    static final class ReadContext implements AutoCloseable {
+        private final Transaction tx;
+        private final HashMap<Long, RunQcStatus> runQcStatus = new HashMap<>();
+        private final HashMap<Long, LiteUser> liteUsers = new HashMap<>();
+        private final HashMap<Long, String> symbolIds = new HashMap<>();
+
+        private ReadContext(GraphDatabaseService graphDb) {
+            this.tx = graphDb.beginTx();
+        }
+
+        @Override
+        public void close() {
+            tx.close();
+        }
+    }
+
+    private static final class LiteUser {
+        private final Boolean admin;
+        private final String fullName;
+
+        private LiteUser(Boolean admin, String fullName) {
+            this.admin = admin;
+            this.fullName = fullName;
+        }
+    }
+
+    /**
+     * Rows and filter counts from one parallel chunk of a workflow
+     */
+    private static final class WorkflowChunk {
+        private final ArrayList<String> rows = new ArrayList<>();
+        private final int[] counts;
+
+        private WorkflowChunk(int filters) {
+            this.counts = new int[filters];
+        }
+    }
+
+    /**
+     * Runs and variants whose workflow rows a transaction changed, or all of them
+     */
+    private static final class WorkflowResultChanges {
+        private boolean all = false;
+        private final LongHashSet runInfoNodeIds = new LongHashSet();
+        private final LongHashSet variantNodeIds = new LongHashSet();
+    }
+
+    /**
+     * Position of a page in a run's calls, resumed from an opaque cursor issued with the previous page; a page of no calls
+     * asks for the run's filter counts instead
+     */
+    static final class WorkflowPage {
+        private final String key;
+        private final long version;
+        private final int pageSize;
+        private final int offset;
+        private final long lastInheritanceRelId;
+
+        private WorkflowPage(String key, long version, int pageSize, int offset, long lastInheritanceRelId) {
+            this.key = key;
+            this.version = version;
+            this.pageSize = pageSize;
+            this.offset = offset;
+            this.lastInheritanceRelId = lastInheritanceRelId;
+        }
+
+        private static WorkflowPage getPage(String key, long version, int pageSize, String cursor) {
+            if (pageSize < 0) throw new IllegalArgumentException("Page size must not be negative");
+            if (pageSize == 0 && cursor != null) throw new IllegalArgumentException("A count request takes no cursor");
+            if (cursor == null) return new WorkflowPage(key, version, pageSize, 0, -1);
+
+            //request hash, calls already read and the id of the last one
+            String[] fields = new String(DatatypeConverter.parseBase64Binary(cursor), Charset.forName("UTF-8")).split(":");
+            if (fields.length != 3) throw new IllegalArgumentException("Malformed cursor");
+            if (!fields[0].equals(Integer.toHexString(key.hashCode()))) throw new IllegalArgumentException("Cursor does not match this request");
+
+            try {
+                int offset = Integer.parseInt(fields[1]);
+                if (offset < 1) throw new IllegalArgumentException("Malformed cursor");
+                return new WorkflowPage(key, version, pageSize, offset, Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+        }
+
+        private boolean isFirst() {
+            return offset == 0;
+        }
+        private boolean isCount() {
+            return pageSize == 0;
+        }
+        /**
+         * @return false if the call before the cursor is not the one it was issued after, so the run has changed
+         */
+        private boolean isValid(long[] inheritanceRelIds) {
+            return offset == 0 || (offset <= inheritanceRelIds.length && inheritanceRelIds[offset - 1] == lastInheritanceRelId);
+        }
+        private String getCursor(int offset, long lastInheritanceRelId) {
+            return DatatypeConverter.printBase64Binary((Integer.toHexString(key.hashCode()) + ":" + offset + ":" + lastInheritanceRelId).getBytes(Charset.forName("UTF-8")));
+        }
+    }
+
+    /**
+     * QC state of a run: the outcome of its last authorised QC event and the status of its latest QC event
+     */
+    private static final class RunQcStatus {
+        private final QcStatus qcStatus;
+        private final boolean hasQcEvents;
+        private final UserEventStatus lastEventStatus;
+
+        private RunQcStatus(QcStatus qcStatus, boolean hasQcEvents, UserEventStatus lastEventStatus) {
+            this.qcStatus = qcStatus;
+            this.hasQcEvents = hasQcEvents;
+            this.lastEventStatus = lastEventStatus;
+        }
+    }
+
     public enum ClinVarCode {
         UncertainSignificance(0),
         NotProvided(1),
@@ -84,17 +241,74 @@ public class VariantDatabasePlugin
 
     }
 
+    private static final RelationshipType hasLastUserEventRelationship = DynamicRelationshipType.withName("HAS_LAST_USER_EVENT");
+    private static final RelationshipType hasLastActiveUserEventRelationship = DynamicRelationshipType.withName("HAS_LAST_ACTIVE_USER_EVENT");
+    private static final RelationshipType hasUserEventSubjectRelationship = DynamicRelationshipType.withName("HAS_USER_EVENT_SUBJECT");
+    private static final Label pendingAuthLabel = DynamicLabel.label("PendingAuth");
+    private static final Label severeConsequenceLabel = DynamicLabel.label("SevereConsequence");
+    private static final Label pluginMetadataLabel = DynamicLabel.label("PluginMetadata");
+
+    private static final ConcurrentHashMap<Long, RunQcStatus> runQcStatusCache = new ConcurrentHashMap<>();
+    private static final AtomicLong runQcStatusCacheGeneration = new AtomicLong();
+    private static final AtomicBoolean cachesWarmed = new AtomicBoolean(false);
+    private static final AtomicBoolean transactionEventHandlersRegistered = new AtomicBoolean(false);
+    private static final VariantRunIndex variantRunIndex = new VariantRunIndex();
+    private static final PopulationFrequencyStore populationFrequencyStore = new PopulationFrequencyStore();
+    private static final ConcurrentHashMap<Long, LongHashSet> panelSymbolNodeIdsCache = new ConcurrentHashMap<>(512);
+    private static final Map<Long, byte[]> annotationInfoCache = Collections.synchronizedMap(new LinkedHashMap<Long, byte[]>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > 10000;
+        }
+    });
+    private static final AtomicLong annotationInfoCacheGeneration = new AtomicLong();
+    private static volatile Map<Long, SymbolDisorders> symbolDisordersCache = null;
+    private static final ConcurrentHashMap<Long, Boolean> featurePreferenceCache = new ConcurrentHashMap<>();
+    private static final AtomicLong featurePreferenceCacheGeneration = new AtomicLong();
+    private static volatile boolean featurePreferenceCacheLoaded = false;
+    private static volatile RunBitmap qcPassRunBitmap = null;
+    private static volatile boolean severeConsequenceCurrent = false;
+    private static volatile boolean pendingAuthLabelCurrent = false;
+    private static volatile boolean maxPopulationFrequencyCurrent = false;
+    private static final Object[] userEventLocks = new Object[64];
+
+    //workflows over runs larger than one chunk are split across the pool; a parallelism of 1 runs them serially
+    private static final int workflowChunkSize = 1024;
+    private static final int workflowParallelism = Integer.getInteger("variantdatabase.workflow.parallelism", Runtime.getRuntime().availableProcessors());
+    private static final ForkJoinPool workflowPool = workflowParallelism > 1 ? new ForkJoinPool(workflowParallelism) : null;
+    private static volatile WorkflowResultCache workflowResultCache = null;
+
+    static {
+        for (int i = 0; i < userEventLocks.length; ++i) userEventLocks[i] = new Object();
+    }
+
+    //workflows by name, found once from their annotations
+    private static final TreeMap<String, Method> workflows = new TreeMap<>();
+
+    static {
+        for (Method method : VariantDatabasePlugin.class.getMethods()) {
+            if (method.isAnnotationPresent(Workflow.class)) workflows.put(method.getAnnotation(Workflow.class).name(), method);
+        }
+    }
+
     private Log logger;
     private GraphDatabaseService graphDb;
     private final ObjectMapper objectMapper;
-    private Method[] methods;
 
     public VariantDatabasePlugin(@Context GraphDatabaseService graphDb, @Context Log logger)
     {
         this.logger = logger;
         this.graphDb = graphDb;
         this.objectMapper = new ObjectMapper();
-        this.methods = this.getClass().getMethods();
+
+        if (cachesWarmed.compareAndSet(false, true)) {
+            try {
+                warmCaches();
+            } catch (Exception e) {
+                cachesWarmed.set(false);
+                logger.error("Could not warm caches: " + e.getMessage());
+            }
+        }
     }
 
     @Retention(RetentionPolicy.RUNTIME)
@@ -102,6 +316,7 @@ public class VariantDatabasePlugin
     public @interface Workflow {
         String name();
         String description();
+        boolean paged() default true;
     }
 
     @POST
@@ -183,6 +398,8 @@ public class VariantDatabasePlugin
                 }
             }
 
+            warmCaches();
+
             logger.info("Warmed up!");
             return Response.ok().build();
         } catch (Exception e) {
@@ -195,6 +412,172 @@ public class VariantDatabasePlugin
 
     }
 
+    @GET
+    @Path("/diagnostic/nodes/dense")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response diagnosticDenseNodes(@QueryParam("threshold") final Integer threshold) {
+
+        try {
+
+            StreamingOutput stream = new StreamingOutput() {
+
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+                    int minDegree = threshold == null ? 1000 : threshold;
+
+                    jg.writeStartArray();
+
+                    try (Transaction tx = graphDb.beginTx()) {
+                        try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getVariantLabel())) {
+
+                            while (iter.hasNext()) {
+                                Node variantNode = iter.next();
+
+                                //degrees are stored on dense nodes so this does not touch the relationships
+                                int het = variantNode.getDegree(VariantDatabase.getHasHetVariantRelationship(), Direction.INCOMING);
+                                int hom = variantNode.getDegree(VariantDatabase.getHasHomVariantRelationship(), Direction.INCOMING);
+
+                                if (het + hom >= minDegree){
+                                    jg.writeStartObject();
+
+                                    jg.writeNumberField("variantNodeId", variantNode.getId());
+                                    if (variantNode.hasProperty("variantId")) jg.writeStringField("variantId", variantNode.getProperty("variantId").toString());
+                                    jg.writeNumberField("het", het);
+                                    jg.writeNumberField("hom", hom);
+                                    jg.writeNumberField("degree", variantNode.getDegree());
+
+                                    jg.writeEndObject();
+                                }
+
+                            }
+
+                        }
+                    }
+
+                    jg.writeEndArray();
+
+                    jg.flush();
+                    jg.close();
+                }
+
+            };
+
+            return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
+
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+
+    }
+
+    @GET
+    @Path("/diagnostic/index/memory")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response diagnosticIndexMemory() {
+
+        try {
+
+            StreamingOutput stream = new StreamingOutput() {
+
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+
+                    jg.writeStartObject();
+
+                    jg.writeObjectFieldStart("variantRunIndex");
+                    jg.writeBooleanField("ready", variantRunIndex.isReady());
+                    jg.writeNumberField("variants", variantRunIndex.getVariantCount());
+                    jg.writeNumberField("runs", variantRunIndex.getRunCount());
+                    jg.writeNumberField("bytes", variantRunIndex.sizeInBytes());
+                    jg.writeEndObject();
+
+                    jg.writeObjectFieldStart("workflowResultCache");
+                    jg.writeBooleanField("ready", workflowResultCache != null);
+                    jg.writeNumberField("dataVersion", workflowResultCache == null ? 0 : workflowResultCache.getDataVersion());
+                    jg.writeNumberField("entries", workflowResultCache == null ? 0 : workflowResultCache.size());
+                    jg.writeNumberField("bytes", workflowResultCache == null ? 0 : workflowResultCache.sizeInBytes());
+                    jg.writeEndObject();
+
+                    jg.writeObjectFieldStart("populationFrequencyStore");
+                    jg.writeBooleanField("ready", populationFrequencyStore.isReady());
+                    jg.writeNumberField("variants", populationFrequencyStore.getVariantCount());
+                    jg.writeNumberField("dirty", populationFrequencyStore.getDirtyCount());
+                    jg.writeNumberField("bytes", populationFrequencyStore.sizeInBytes());
+                    jg.writeEndObject();
+
+                    jg.writeEndObject();
+
+                    jg.flush();
+                    jg.close();
+                }
+
+            };
+
+            return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
+
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+
+    }
+
+    @GET
+    @Path("/diagnostic/workflow/stages")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response diagnosticWorkflowStages() {
+
+        try {
+
+            StreamingOutput stream = new StreamingOutput() {
+
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+
+                    jg.writeStartArray();
+
+                    for (Map.Entry<String, FilterStage.Statistics> iter : FilterStage.getStatistics().entrySet()){
+                        jg.writeStartObject();
+
+                        jg.writeStringField("name", iter.getKey());
+                        jg.writeNumberField("evaluated", iter.getValue().getEvaluated());
+                        jg.writeNumberField("rejected", iter.getValue().getRejected());
+                        jg.writeNumberField("timed", iter.getValue().getTimed());
+                        jg.writeNumberField("nanos", iter.getValue().getNanos());
+
+                        jg.writeEndObject();
+                    }
+
+                    jg.writeEndArray();
+
+                    jg.flush();
+                    jg.close();
+                }
+
+            };
+
+            return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
+
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+
+    }
+
     @GET
     @Path("/workflows/list")
     @Produces(MediaType.APPLICATION_JSON)
@@ -211,12 +594,13 @@ public class VariantDatabasePlugin
                     jg.writeStartArray();
 
                     //print method names with get or post annotations
-                    for (Method method : methods){
-                        if (method.isAnnotationPresent(Workflow.class) && !method.isAnnotationPresent(Deprecated.class)){
+                    for (Method method : workflows.values()){
+                        if (!method.isAnnotationPresent(Deprecated.class)){
                             jg.writeStartObject();
 
                             jg.writeStringField("name", method.getAnnotation(Workflow.class).name());
                             jg.writeStringField("description", method.getAnnotation(Workflow.class).description());
+                            jg.writeBooleanField("paged", method.getAnnotation(Workflow.class).paged());
 
                             jg.writeEndObject();
                         }
@@ -257,7 +641,7 @@ public class VariantDatabasePlugin
 
                     jg.writeStartArray();
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
                         try (ResourceIterator<Node> sampleNodes = graphDb.findNodes(VariantDatabase.getSampleLabel())) {
 
                             while (sampleNodes.hasNext()) {
@@ -267,20 +651,15 @@ public class VariantDatabasePlugin
                                     Node runInfoNode = relationship.getEndNode();
 
                                     //check run has passed QC
-                                    Node lastEventNode = getLastUserEventNode(runInfoNode);
+                                    RunQcStatus runQcStatus = getRunQcStatus(ctx, runInfoNode);
 
-                                    if (lastEventNode.getId() != runInfoNode.getId()){
-                                        UserEventStatus status = getUserEventStatus(lastEventNode);
-
-                                        if (status == UserEventStatus.ACTIVE && (boolean) lastEventNode.getProperty("passOrFail")){
-                                            jg.writeStartObject();
-
-                                            writeSampleInformation(sampleNode, jg);
-                                            writeRunInformation(runInfoNode, jg);
+                                    if (runQcStatus.lastEventStatus == UserEventStatus.ACTIVE && runQcStatus.qcStatus == QcStatus.PASS){
+                                        jg.writeStartObject();
 
-                                            jg.writeEndObject();
-                                        }
+                                        writeSampleInformation(sampleNode, jg);
+                                        writeRunInformation(runInfoNode, jg);
 
+                                        jg.writeEndObject();
                                     }
 
                                 }
@@ -325,7 +704,7 @@ public class VariantDatabasePlugin
 
                     jg.writeStartArray();
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
                         try (ResourceIterator<Node> virtualPanelNodes = graphDb.findNodes(VariantDatabase.getVirtualPanelLabel())) {
 
                             while (virtualPanelNodes.hasNext()) {
@@ -378,7 +757,7 @@ public class VariantDatabasePlugin
 
                     jg.writeStartObject();
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
                         Node panelNode = graphDb.getNodeById(parameters.panelNodeId);
 
                         writeVirtualPanelInformation(panelNode, jg);
@@ -389,7 +768,7 @@ public class VariantDatabasePlugin
                             Node symbolNode = containsSymbol.getEndNode();
 
                             jg.writeStartObject();
-                            writeSymbolInformation(symbolNode, jg);
+                            writeSymbolInformation(ctx, symbolNode, jg);
                             jg.writeEndObject();
 
                         }
@@ -446,6 +825,8 @@ public class VariantDatabasePlugin
                 tx.success();
             }
 
+            panelSymbolNodeIdsCache.clear();
+
             return Response
                     .status(Response.Status.OK)
                     .build();
@@ -479,8 +860,7 @@ public class VariantDatabasePlugin
 
                     jg.writeStartObject();
 
-                    //find variant
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
 
                         //find variant
                         try (ResourceIterator<Node> variants = graphDb.findNodes(VariantDatabase.getVariantLabel(), "variantId", parameters.variantId)) {
@@ -490,12 +870,14 @@ public class VariantDatabasePlugin
                             variants.close();
                         }
 
-                    }
+                        //print variant info
+                        if (variantNode != null){
+                            EventChain eventChain = EventChain.read(variantNode);
+
+                            writeVariantInformation(ctx, variantNode, eventChain.getLastActiveEventNode(), jg);
+                            writeEventHistory(ctx, eventChain, jg);
+                        }
 
-                    //print variant info
-                    if (variantNode != null){
-                        writeVariantInformation(variantNode, jg);
-                        writeEventHistory(variantNode,jg);
                     }
 
                     jg.writeEndObject();
@@ -536,18 +918,36 @@ public class VariantDatabasePlugin
 
                     jg.writeStartArray();
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
                         Node variantNode = graphDb.getNodeById(parameters.variantNodeId);
+                        LinkedHashMap<Node, String> carriers = new LinkedHashMap<>();
+
+                        if (variantRunIndex.isReady()){
+                            RunBitmap qcPassRuns = getQcPassRunBitmap();
+
+                            for (int ordinal : variantRunIndex.getHetRuns(variantNode.getId()).toArray()){
+                                if (qcPassRuns.contains(ordinal)) carriers.put(graphDb.getNodeById(variantRunIndex.getRunInfoNodeId(ordinal)), getVariantInheritance(VariantDatabase.getHasHetVariantRelationship().name()));
+                            }
+                            for (int ordinal : variantRunIndex.getHomRuns(variantNode.getId()).toArray()){
+                                if (qcPassRuns.contains(ordinal)) carriers.put(graphDb.getNodeById(variantRunIndex.getRunInfoNodeId(ordinal)), getVariantInheritance(VariantDatabase.getHasHomVariantRelationship().name()));
+                            }
+
+                        } else {
 
-                        for (Relationship inheritanceRel : variantNode.getRelationships(Direction.INCOMING)) {
-                            Node runInfoNode = inheritanceRel.getStartNode();
+                            for (Relationship inheritanceRel : variantNode.getRelationships(Direction.INCOMING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+
+                                //check if run has passed QC
+                                if (getRunQcStatus(ctx, inheritanceRel.getStartNode()).qcStatus == QcStatus.PASS){
+                                    carriers.put(inheritanceRel.getStartNode(), getVariantInheritance(inheritanceRel.getType().name()));
+                                }
 
-                            //check if run has passed QC
-                            Node qcNode = getLastActiveUserEventNode(runInfoNode);
-                            if (qcNode == null || !(boolean) qcNode.getProperty("passOrFail")){
-                                continue;
                             }
 
+                        }
+
+                        for (Map.Entry<Node, String> carrier : carriers.entrySet()) {
+                            Node runInfoNode = carrier.getKey();
+
                             if (runInfoNode.hasLabel(VariantDatabase.getRunInfoLabel())){
                                 Node sampleNode = runInfoNode.getSingleRelationship(VariantDatabase.getHasAnalysisRelationship(), Direction.INCOMING).getStartNode();
 
@@ -555,7 +955,7 @@ public class VariantDatabasePlugin
                                     jg.writeStartObject();
 
                                     writeSampleInformation(sampleNode, jg);
-                                    jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
+                                    jg.writeStringField("inheritance", carrier.getValue());
                                     writeRunInformation(runInfoNode, jg);
 
                                     jg.writeEndObject();
@@ -607,17 +1007,6 @@ public class VariantDatabasePlugin
                 userNode = graphDb.getNodeById(parameters.userNodeId);
             }
 
-            //check variant does not already have outstanding auths
-            Node lastEventNode = getLastUserEventNode(variantNode);
-
-            if (lastEventNode.getId() != variantNode.getId()){
-                UserEventStatus status = getUserEventStatus(lastEventNode);
-
-                if (status == UserEventStatus.PENDING_AUTH){
-                    throw new IllegalArgumentException("Cannot add pathogenicity. Auth pending.");
-                }
-            }
-
             //add properties
             HashMap<String, Object> properties = new HashMap<>();
             properties.put("classification", parameters.classification);
@@ -626,8 +1015,8 @@ public class VariantDatabasePlugin
                 if (!parameters.evidence.equals("")) properties.put("evidence", parameters.evidence);
             }
 
-            //add event
-            addUserEvent(lastEventNode, VariantDatabase.getVariantPathogenicityLabel(), properties, userNode);
+            //add event if there are no outstanding auths
+            appendUserEvent(variantNode, VariantDatabase.getVariantPathogenicityLabel(), properties, userNode, "Cannot add pathogenicity. Auth pending.");
 
             return Response
                     .status(Response.Status.OK)
@@ -650,110 +1039,233 @@ public class VariantDatabasePlugin
     }
 
     @POST
-    @Path("/variant/filter")
+    @Path("/variant/addpathogenicities")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response variantFilter(final String json) {
+    public Response variantAddPathogenicities(final String json) {
 
-        try{
-            StreamingOutput stream = new StreamingOutput() {
+        try {
 
-                @Override
-                public void write(OutputStream os) throws IOException {
+            Parameters parameters = objectMapper.readValue(json, Parameters.class);
+            HashSet<Long> variantNodeIds = new HashSet<>();
+            ArrayList<Long> pendingVariantNodeIds = new ArrayList<>();
 
-                    Parameters parameters = objectMapper.readValue(json, Parameters.class);
-                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+            if (parameters.variantClassifications == null) {
+                throw new IllegalArgumentException("No classifications supplied");
+            }
 
-                    HashSet<Long> excludeRunInfoNodes = new HashSet<>(Arrays.asList(parameters.excludeRunInfoNodes));
-                    HashSet<Long> includePanelNodes = new HashSet<>(Arrays.asList(parameters.includePanelNodes));
-                    Node runInfoNode;
+            //check classifications are in range and unique
+            for (VariantClassification variantClassification : parameters.variantClassifications){
+                if (variantClassification.variantNodeId == null || variantClassification.classification == null){
+                    throw new IllegalArgumentException("Each classification requires variantNodeId and classification");
+                }
+                if (variantClassification.classification < 1 || variantClassification.classification > 5){
+                    throw new IllegalArgumentException("Unknown classification");
+                }
+                if (!variantNodeIds.add(variantClassification.variantNodeId)){
+                    throw new IllegalArgumentException("Variant " + variantClassification.variantNodeId + " supplied more than once");
+                }
+            }
 
-                    try (Transaction tx = graphDb.beginTx()) {
-                        runInfoNode = graphDb.getNodeById(parameters.runInfoNodeId);
-                    }
+            //check no variant already has outstanding auths
+            try (ReadContext ctx = new ReadContext(graphDb)) {
+                graphDb.getNodeById(parameters.userNodeId);
 
-                    //exec workflow
-                    switch (parameters.workflowName) {
-                        case "Rare Variant Workflow v1":
-                            runRareVariantWorkflowv1(jg, excludeRunInfoNodes, includePanelNodes, runInfoNode);
-                            break;
-                        case "Autosomal Dominant Workflow v1":
-                            runAutosomalDominantWorkflowv1(jg, excludeRunInfoNodes, includePanelNodes, runInfoNode);
-                            break;
-                        case "Rare Homozygous Workflow v1":
-                            runRareHomozygousWorkflowv1(jg, excludeRunInfoNodes, includePanelNodes, runInfoNode);
-                            break;
-                        case "Autosomal Recessive Workflow v1":
-                            runAutosomalRecessiveWorkflowv1(jg, excludeRunInfoNodes, includePanelNodes, runInfoNode);
-                            break;
-                        case "X Linked Workflow v1":
-                            runXLinkedWorkflowv1(jg, excludeRunInfoNodes, includePanelNodes, runInfoNode);
-                            break;
-                        default:
-                            throw new IllegalArgumentException("Unknown workflow");
-                    }
+                for (VariantClassification variantClassification : parameters.variantClassifications){
+                    Node variantNode = graphDb.getNodeById(variantClassification.variantNodeId);
+                    Node lastEventNode = getLastUserEventNode(variantNode);
 
-                    jg.flush();
-                    jg.close();
+                    if (lastEventNode.getId() != variantNode.getId() && EventChain.getUserEventStatus(lastEventNode) == UserEventStatus.PENDING_AUTH){
+                        pendingVariantNodeIds.add(variantNode.getId());
+                    }
 
                 }
 
-            };
+            }
 
-            return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-            return Response
-                    .status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
-                    .build();
-        }
-    }
+            if (pendingVariantNodeIds.size() > 0){
+                throw new IllegalArgumentException("Cannot add pathogenicity. Auth pending for variants " + pendingVariantNodeIds.toString());
+            }
 
-    @GET
-    @Path("/variant/pendingauth")
-    @Produces(MediaType.APPLICATION_JSON)
-    public Response variantPendingAuth() {
+            //lock variants in id order so concurrent batches cannot deadlock
+            VariantClassification[] variantClassifications = parameters.variantClassifications.clone();
+            Arrays.sort(variantClassifications, new Comparator<VariantClassification>() {
+                @Override
+                public int compare(VariantClassification a, VariantClassification b) {
+                    return a.variantNodeId.compareTo(b.variantNodeId);
+                }
+            });
 
-        try {
+            //add all events in one commit; a conflict raised under the locks rolls back the whole batch
+            try (Transaction tx = graphDb.beginTx()) {
+                Node userNode = graphDb.getNodeById(parameters.userNodeId);
 
-            StreamingOutput stream = new StreamingOutput() {
+                for (VariantClassification variantClassification : variantClassifications){
+                    Node variantNode = graphDb.getNodeById(variantClassification.variantNodeId);
 
-                @Override
-                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    //add properties
+                    HashMap<String, Object> properties = new HashMap<>();
+                    properties.put("classification", variantClassification.classification);
 
-                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+                    if (variantClassification.evidence != null) {
+                        if (!variantClassification.evidence.equals("")) properties.put("evidence", variantClassification.evidence);
+                    }
 
-                    jg.writeStartArray();
+                    appendUserEventLocked(variantNode, VariantDatabase.getVariantPathogenicityLabel(), properties, userNode, "Cannot add pathogenicity. Auth pending for variant " + variantNode.getId());
+                }
+
+                tx.success();
+            }
+
+            return Response
+                    .status(Response.Status.OK)
+                    .build();
+
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+
+    }
+
+    @POST
+    @Path("/variant/filter")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response variantFilter(final String json) {
+
+        try{
+            final Parameters parameters = objectMapper.readValue(json, Parameters.class);
+
+            final Method workflow = workflows.get(parameters.workflowName);
+            if (workflow == null) throw new IllegalArgumentException("Unknown workflow");
+
+            //either list may be left out of the request
+            if (parameters.includePanelNodes == null) parameters.includePanelNodes = new Long[0];
+            if (parameters.excludeRunInfoNodes == null) parameters.excludeRunInfoNodes = new Long[0];
+
+            final WorkflowResultCache resultCache = workflowResultCache;
+            final String key = WorkflowResultCache.getKey(parameters.runInfoNodeId, parameters.workflowName, parameters.includePanelNodes, parameters.excludeRunInfoNodes);
+            final long dataVersion = resultCache == null ? -1 : resultCache.getDataVersion(parameters.runInfoNodeId);
+
+            //decode the cursor before streaming so a stale or foreign one is rejected
+            final WorkflowPage page = parameters.pageSize == null ? null : WorkflowPage.getPage(key, dataVersion, parameters.pageSize, parameters.cursor);
+            if (page != null && !workflow.getAnnotation(Workflow.class).paged()) throw new IllegalArgumentException("Workflow cannot be paged");
+
+            if (page != null && !page.isFirst()) {
+                try (Transaction tx = graphDb.beginTx()) {
+                    if (!page.isValid(getInheritanceRelIds(graphDb.getNodeById(parameters.runInfoNodeId), dataVersion))) throw new IllegalArgumentException("Cursor is no longer valid");
+                }
+            }
+
+            StreamingOutput stream = new StreamingOutput() {
+
+                @Override
+                public void write(OutputStream os) throws IOException {
+
+                    //return the stored response if nothing has been written since it was computed; pages are not stored
+                    byte[] result = resultCache == null || page != null ? null : resultCache.get(key, dataVersion);
+
+                    if (result != null) {
+                        os.write(result);
+                        os.flush();
+                        return;
+                    }
+
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(resultCache == null || page != null ? os : getTeeOutputStream(os, baos), JsonEncoding.UTF8);
+
+                    ArrayList<FilterStage> gates = new ArrayList<>();
+                    Node runInfoNode;
 
                     try (Transaction tx = graphDb.beginTx()) {
-                        try (ResourceIterator<Node> variantPathogenicityIterator = graphDb.findNodes(VariantDatabase.getVariantPathogenicityLabel())){
+                        runInfoNode = graphDb.getNodeById(parameters.runInfoNodeId);
 
-                            while (variantPathogenicityIterator.hasNext()) {
-                                Node variantPathogenicity = variantPathogenicityIterator.next();
+                        //until measured, gates run in the order added: the exclusion set lookup before the walk over a call's symbols
+                        //resolve exclusion runs to one variant set
+                        if (parameters.excludeRunInfoNodes.length > 0) {
+                            gates.add(getExclusionStage(parameters.excludeRunInfoNodes));
+                        }
 
-                                if (getUserEventStatus(variantPathogenicity) == UserEventStatus.PENDING_AUTH){
+                        //resolve panels to one symbol set
+                        if (parameters.includePanelNodes.length > 0) {
+                            gates.add(getPanelStage(parameters.includePanelNodes));
+                        }
+                    }
 
-                                    Relationship addedByRelationship = variantPathogenicity.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
+                    //exec workflow; gates drop calls outright so run the cheapest, most selective first
+                    runWorkflow(workflow, jg, FilterStage.plan(gates), runInfoNode, page);
 
-                                    jg.writeStartObject();
+                    jg.flush();
+                    jg.close();
 
-                                    jg.writeNumberField("eventNodeId", variantPathogenicity.getId());
-                                    jg.writeStringField("event", "Variant classification");
-                                    jg.writeNumberField("value", (int) variantPathogenicity.getProperty("classification"));
-                                    if (variantPathogenicity.hasProperty("evidence")) jg.writeStringField("evidence", variantPathogenicity.getProperty("evidence").toString());
+                    //tagged with the version read before computing, so writes made meanwhile leave it stale
+                    if (resultCache != null && page == null) resultCache.put(parameters.runInfoNodeId, key, dataVersion, baos.toByteArray());
 
-                                    jg.writeObjectFieldStart("add");
-                                    writeLiteUserInformation(addedByRelationship.getEndNode(), jg);
-                                    jg.writeNumberField("date",(long) addedByRelationship.getProperty("date"));
-                                    jg.writeEndObject();
+                }
 
-                                    writeVariantInformation(getSubjectNodeFromEventNode(variantPathogenicity), jg);
-                                    jg.writeEndObject();
+            };
 
-                                }
+            return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+    }
 
-                            }
+    @GET
+    @Path("/variant/pendingauth")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response variantPendingAuth() {
+
+        try {
+
+            StreamingOutput stream = new StreamingOutput() {
+
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+
+                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+
+                    jg.writeStartArray();
+
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
+                        for (Node variantPathogenicity : getPendingAuthEventNodes(VariantDatabase.getVariantPathogenicityLabel())) {
+
+                            Relationship addedByRelationship = variantPathogenicity.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
+
+                            jg.writeStartObject();
+
+                            jg.writeNumberField("eventNodeId", variantPathogenicity.getId());
+                            jg.writeStringField("event", "Variant classification");
+                            jg.writeNumberField("value", (int) variantPathogenicity.getProperty("classification"));
+                            if (variantPathogenicity.hasProperty("evidence")) jg.writeStringField("evidence", variantPathogenicity.getProperty("evidence").toString());
+
+                            jg.writeObjectFieldStart("add");
+                            writeLiteUserInformation(ctx, addedByRelationship.getEndNode(), jg);
+                            jg.writeNumberField("date",(long) addedByRelationship.getProperty("date"));
+                            jg.writeEndObject();
+
+                            writeVariantInformation(ctx, getSubjectNodeFromEventNode(variantPathogenicity), jg);
+                            jg.writeEndObject();
 
                         }
                     }
@@ -779,6 +1291,67 @@ public class VariantDatabasePlugin
 
     }
 
+    @GET
+    @Path("/pendingauth/counts")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response pendingAuthCounts() {
+
+        try {
+
+            StreamingOutput stream = new StreamingOutput() {
+
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+
+                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+                    int variants = 0, features = 0, analyses = 0;
+
+                    //one pass over the queue; events pending before the label existed are missed until the backfill has run
+                    try (Transaction tx = graphDb.beginTx()) {
+                        try (ResourceIterator<Node> iter = graphDb.findNodes(pendingAuthLabel)) {
+                            while (iter.hasNext()) {
+                                Node eventNode = iter.next();
+
+                                if (eventNode.hasLabel(VariantDatabase.getVariantPathogenicityLabel())) {
+                                    variants++;
+                                } else if (eventNode.hasLabel(VariantDatabase.getFeaturePreferenceLabel())) {
+                                    features++;
+                                } else if (eventNode.hasLabel(VariantDatabase.getQualityControlLabel())) {
+                                    analyses++;
+                                }
+                            }
+                        }
+                    }
+
+                    jg.writeStartObject();
+
+                    jg.writeNumberField("variant", variants);
+                    jg.writeNumberField("feature", features);
+                    jg.writeNumberField("analyses", analyses);
+                    jg.writeNumberField("total", variants + features + analyses);
+                    jg.writeBooleanField("complete", pendingAuthLabelCurrent);
+
+                    jg.writeEndObject();
+
+                    jg.flush();
+                    jg.close();
+
+                }
+
+            };
+
+            return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
+
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+
+    }
+
     @POST
     @Path("/feature/info")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -798,7 +1371,7 @@ public class VariantDatabasePlugin
 
                     jg.writeStartObject();
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
 
                         try (ResourceIterator<Node> features = graphDb.findNodes(VariantDatabase.getFeatureLabel(), "featureId", parameters.featureId)) {
                             while (features.hasNext()) {
@@ -808,8 +1381,11 @@ public class VariantDatabasePlugin
                         }
 
                         if (featureNode!=null){
-                            writeFeatureInformation(featureNode, jg);
-                            writeEventHistory(featureNode,jg);
+                            EventChain eventChain = EventChain.read(featureNode);
+
+                            Node lastActiveEventNode = eventChain.getLastActiveEventNode();
+                            writeFeatureInformation(featureNode, lastActiveEventNode == null ? null : (Boolean) lastActiveEventNode.getProperty("preference"), jg);
+                            writeEventHistory(ctx, eventChain, jg);
                         }
 
                     }
@@ -851,17 +1427,6 @@ public class VariantDatabasePlugin
                 userNode = graphDb.getNodeById(parameters.userNodeId);
             }
 
-            //check variant does not already have outstanding auths
-            Node lastEventNode = getLastUserEventNode(featureNode);
-
-            if (lastEventNode.getId() != featureNode.getId()){
-                UserEventStatus status = getUserEventStatus(lastEventNode);
-
-                if (status == UserEventStatus.PENDING_AUTH){
-                    throw new IllegalArgumentException("Cannot add preference. Auth pending.");
-                }
-            }
-
             //add properties
             HashMap<String, Object> properties = new HashMap<>();
             properties.put("preference", parameters.featurePreference);
@@ -870,8 +1435,8 @@ public class VariantDatabasePlugin
                 if (!parameters.evidence.equals("")) properties.put("evidence", parameters.evidence);
             }
 
-            //add event
-            addUserEvent(lastEventNode, VariantDatabase.getFeaturePreferenceLabel(), properties, userNode);
+            //add event if there are no outstanding auths
+            appendUserEvent(featureNode, VariantDatabase.getFeaturePreferenceLabel(), properties, userNode, "Cannot add preference. Auth pending.");
 
             return Response
                     .status(Response.Status.OK)
@@ -909,34 +1474,25 @@ public class VariantDatabasePlugin
 
                     jg.writeStartArray();
 
-                    try (Transaction tx = graphDb.beginTx()) {
-                        try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getFeaturePreferenceLabel())){
-
-                            while (iter.hasNext()) {
-                                Node featurePreferenceNode = iter.next();
-
-                                if (getUserEventStatus(featurePreferenceNode) == UserEventStatus.PENDING_AUTH){
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
+                        for (Node featurePreferenceNode : getPendingAuthEventNodes(VariantDatabase.getFeaturePreferenceLabel())) {
 
-                                    Relationship addedByRelationship = featurePreferenceNode.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
+                            Relationship addedByRelationship = featurePreferenceNode.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
 
-                                    jg.writeStartObject();
-
-                                    jg.writeNumberField("eventNodeId", featurePreferenceNode.getId());
-                                    jg.writeStringField("event", "Feature preference");
-                                    jg.writeBooleanField("value", (boolean) featurePreferenceNode.getProperty("preference"));
-                                    if (featurePreferenceNode.hasProperty("evidence")) jg.writeStringField("evidence", featurePreferenceNode.getProperty("evidence").toString());
-
-                                    jg.writeObjectFieldStart("add");
-                                    writeLiteUserInformation(addedByRelationship.getEndNode(), jg);
-                                    jg.writeNumberField("date",(long) addedByRelationship.getProperty("date"));
-                                    jg.writeEndObject();
+                            jg.writeStartObject();
 
-                                    writeFeatureInformation(getSubjectNodeFromEventNode(featurePreferenceNode), jg);
-                                    jg.writeEndObject();
+                            jg.writeNumberField("eventNodeId", featurePreferenceNode.getId());
+                            jg.writeStringField("event", "Feature preference");
+                            jg.writeBooleanField("value", (boolean) featurePreferenceNode.getProperty("preference"));
+                            if (featurePreferenceNode.hasProperty("evidence")) jg.writeStringField("evidence", featurePreferenceNode.getProperty("evidence").toString());
 
-                                }
+                            jg.writeObjectFieldStart("add");
+                            writeLiteUserInformation(ctx, addedByRelationship.getEndNode(), jg);
+                            jg.writeNumberField("date",(long) addedByRelationship.getProperty("date"));
+                            jg.writeEndObject();
 
-                            }
+                            writeFeatureInformation(getSubjectNodeFromEventNode(featurePreferenceNode), jg);
+                            jg.writeEndObject();
 
                         }
                     }
@@ -981,7 +1537,7 @@ public class VariantDatabasePlugin
 
                     jg.writeStartObject();
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
 
                         try (ResourceIterator<Node> symbols = graphDb.findNodes(VariantDatabase.getSymbolLabel(), "symbolId", parameters.symbolId)) {
                             while (symbols.hasNext()) {
@@ -991,7 +1547,7 @@ public class VariantDatabasePlugin
                         }
 
                         if (symbolNode!=null){
-                            writeSymbolInformation(symbolNode, jg);
+                            writeSymbolInformation(ctx, symbolNode, jg);
 
                             jg.writeArrayFieldStart("features");
                             for (Relationship hasProteinCodingBiotypeRelationship : symbolNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasProteinCodingBiotypeRelationship())){
@@ -1041,55 +1597,10 @@ public class VariantDatabasePlugin
                 @Override
                 public void write(OutputStream os) throws IOException, WebApplicationException {
 
-                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
                     Parameters parameters = objectMapper.readValue(json, Parameters.class);
 
-                    jg.writeStartArray();
-
-                    try (Transaction tx = graphDb.beginTx()) {
-                        Node variantNode = graphDb.getNodeById(parameters.variantNodeId);
-
-                        for (Relationship consequenceRel : variantNode.getRelationships(Direction.OUTGOING)) {
-                            Node annotationNode = consequenceRel.getEndNode();
-
-                            if (annotationNode.hasLabel(VariantDatabase.getAnnotationLabel())){
-
-                                for (Relationship inFeatureRel : annotationNode.getRelationships(Direction.OUTGOING, VariantDatabase.getInFeatureRelationship())) {
-                                    Node featureNode = inFeatureRel.getEndNode();
-
-                                    if (featureNode.hasLabel(VariantDatabase.getFeatureLabel())){
-
-                                        for (Relationship biotypeRel : featureNode.getRelationships(Direction.INCOMING)) {
-                                            Node symbolNode = biotypeRel.getStartNode();
-
-                                            if (symbolNode.hasLabel(VariantDatabase.getSymbolLabel())){
-
-                                                jg.writeStartObject();
-
-                                                writeSymbolInformation(symbolNode, jg);
-                                                writeFeatureInformation(featureNode, jg);
-                                                writeFunctionalAnnotation(annotationNode, consequenceRel, biotypeRel, jg);
-
-                                                jg.writeEndObject();
-
-                                            }
-
-                                        }
-
-                                    }
-
-                                }
-
-                            }
-
-                        }
-
-                    }
-
-                    jg.writeEndArray();
-
-                    jg.flush();
-                    jg.close();
+                    os.write(getAnnotationInformation(parameters.variantNodeId));
+                    os.flush();
                 }
 
             };
@@ -1123,7 +1634,7 @@ public class VariantDatabasePlugin
 
                     jg.writeStartObject();
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
 
                         try (ResourceIterator<Node> samples = graphDb.findNodes(VariantDatabase.getSampleLabel(), "sampleId", parameters.sampleId)) {
                             while (samples.hasNext()) {
@@ -1182,20 +1693,19 @@ public class VariantDatabasePlugin
 
                     jg.writeStartArray();
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
                         try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getRunInfoLabel())){
 
                             while (iter.hasNext()) {
                                 Node runInfoNode = iter.next();
 
                                 //check run has passed QC
-                                Node lastEventNode = getLastUserEventNode(runInfoNode);
+                                RunQcStatus runQcStatus = getRunQcStatus(ctx, runInfoNode);
 
-                                if (lastEventNode.getId() != runInfoNode.getId()){
-                                    UserEventStatus status = getUserEventStatus(lastEventNode);
+                                if (runQcStatus.hasQcEvents){
 
                                     //skip pending QC
-                                    if (status == UserEventStatus.REJECTED){
+                                    if (runQcStatus.lastEventStatus == UserEventStatus.REJECTED){
                                         jg.writeStartObject();
                                         writeSampleInformation(runInfoNode.getSingleRelationship(VariantDatabase.getHasAnalysisRelationship(), Direction.INCOMING).getStartNode(), jg);
                                         writeRunInformation(runInfoNode, jg);
@@ -1236,48 +1746,74 @@ public class VariantDatabasePlugin
     }
 
     @POST
-    @Path("/analyses/addqc")
+    @Path("/analyses/rarevariants")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response analysesAddQc(final String json) {
+    public Response analysesRareVariants(final String json) {
 
         try {
 
-            Node runInfoNode, userNode;
-            Parameters parameters = objectMapper.readValue(json, Parameters.class);
+            final Parameters parameters = objectMapper.readValue(json, Parameters.class);
 
-            //get nodes
-            try (Transaction tx = graphDb.beginTx()) {
-                runInfoNode = graphDb.getNodeById(parameters.runInfoNodeId);
-                userNode = graphDb.getNodeById(parameters.userNodeId);
+            if (parameters.maxAlleleFrequency == null || parameters.maxAlleleFrequency < 0 || parameters.maxAlleleFrequency > 1){
+                throw new IllegalArgumentException("Unknown max allele frequency");
             }
 
-            //check variant does not already have outstanding auths
-            Node lastEventNode = getLastUserEventNode(runInfoNode);
+            StreamingOutput stream = new StreamingOutput() {
 
-            if (lastEventNode.getId() != runInfoNode.getId()){
-                UserEventStatus status = getUserEventStatus(lastEventNode);
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
 
-                if (status == UserEventStatus.PENDING_AUTH){
-                    throw new IllegalArgumentException("Cannot add QC result. Auth pending.");
-                }
+                    jg.writeStartArray();
 
-            }
+                    try (Transaction tx = graphDb.beginTx()) {
+                        Node runInfoNode = graphDb.getNodeById(parameters.runInfoNodeId);
+                        Integer runOrdinal = variantRunIndex.isReady() ? variantRunIndex.findRunOrdinal(runInfoNode.getId()) : null;
 
-            //add properties
-            HashMap<String, Object> properties = new HashMap<>();
-            properties.put("passOrFail", parameters.passOrFail);
+                        if (maxPopulationFrequencyCurrent && runOrdinal != null && isPopulationFrequencyIndexOnline()) {
+                            HashMap<String, Object> queryParameters = new HashMap<>();
+                            queryParameters.put("maxAlleleFrequency", parameters.maxAlleleFrequency);
 
-            if (parameters.evidence != null) {
-                if (!parameters.evidence.equals("")) properties.put("evidence", parameters.evidence);
-            }
+                            //seek rare variants in the range index and keep those the run carries
+                            try (Result result = graphDb.execute("MATCH (v:" + VariantDatabase.getVariantLabel().name() + ") WHERE v.maxKgAf <= {maxAlleleFrequency} AND v.maxExacAf <= {maxAlleleFrequency} RETURN id(v) AS variantNodeId", queryParameters)) {
+                                ResourceIterator<Long> iter = result.columnAs("variantNodeId");
 
-            //add event
-            addUserEvent(lastEventNode, VariantDatabase.getQualityControlLabel(), properties, userNode);
+                                while (iter.hasNext()) {
+                                    long variantNodeId = iter.next();
 
-            return Response
-                    .status(Response.Status.OK)
-                    .build();
+                                    if (variantRunIndex.getHetRuns(variantNodeId).contains(runOrdinal)) {
+                                        writeRareVariant(graphDb.getNodeById(variantNodeId), VariantDatabase.getHasHetVariantRelationship(), jg);
+                                    } else if (variantRunIndex.getHomRuns(variantNodeId).contains(runOrdinal)) {
+                                        writeRareVariant(graphDb.getNodeById(variantNodeId), VariantDatabase.getHasHomVariantRelationship(), jg);
+                                    }
+                                }
+                            }
+
+                        } else {
+
+                            //until every variant carries an indexed max and the run index is built, filter the run's calls
+                            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+                                Node variantNode = inheritanceRel.getEndNode();
+
+                                if (getMaxKgAf(variantNode) > parameters.maxAlleleFrequency || getMaxExacAf(variantNode) > parameters.maxAlleleFrequency) continue;
+
+                                writeRareVariant(variantNode, inheritanceRel.getType(), jg);
+                            }
+
+                        }
+
+                    }
+
+                    jg.writeEndArray();
+
+                    jg.flush();
+                    jg.close();
+                }
+
+            };
+
+            return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
 
         } catch (IllegalArgumentException e) {
             logger.error(e.getMessage());
@@ -1295,8 +1831,57 @@ public class VariantDatabasePlugin
 
     }
 
-    @GET
-    @Path("/analyses/pendingauth")
+    @POST
+    @Path("/analyses/addqc")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response analysesAddQc(final String json) {
+
+        try {
+
+            Node runInfoNode, userNode;
+            Parameters parameters = objectMapper.readValue(json, Parameters.class);
+
+            //get nodes
+            try (Transaction tx = graphDb.beginTx()) {
+                runInfoNode = graphDb.getNodeById(parameters.runInfoNodeId);
+                userNode = graphDb.getNodeById(parameters.userNodeId);
+            }
+
+            //add properties
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("passOrFail", parameters.passOrFail);
+
+            if (parameters.evidence != null) {
+                if (!parameters.evidence.equals("")) properties.put("evidence", parameters.evidence);
+            }
+
+            //add event if there are no outstanding auths
+            appendUserEvent(runInfoNode, VariantDatabase.getQualityControlLabel(), properties, userNode, "Cannot add QC result. Auth pending.");
+            invalidateRunQcStatus(runInfoNode.getId());
+
+            return Response
+                    .status(Response.Status.OK)
+                    .build();
+
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+
+    }
+
+    @GET
+    @Path("/analyses/pendingauth")
     @Produces(MediaType.APPLICATION_JSON)
     public Response analysesPendingAuth() {
 
@@ -1311,38 +1896,29 @@ public class VariantDatabasePlugin
 
                     jg.writeStartArray();
 
-                    try (Transaction tx = graphDb.beginTx()) {
-                        try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getQualityControlLabel())){
-
-                            while (iter.hasNext()) {
-                                Node qualityControlNode = iter.next();
-
-                                if (getUserEventStatus(qualityControlNode) == UserEventStatus.PENDING_AUTH){
-
-                                    Relationship addedByRelationship = qualityControlNode.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
-
-                                    jg.writeStartObject();
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
+                        for (Node qualityControlNode : getPendingAuthEventNodes(VariantDatabase.getQualityControlLabel())) {
 
-                                    jg.writeNumberField("eventNodeId", qualityControlNode.getId());
-                                    jg.writeStringField("event", "Quality Control");
-                                    jg.writeBooleanField("value", (boolean) qualityControlNode.getProperty("passOrFail"));
-                                    if (qualityControlNode.hasProperty("evidence")) jg.writeStringField("evidence", qualityControlNode.getProperty("evidence").toString());
+                            Relationship addedByRelationship = qualityControlNode.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
 
-                                    jg.writeObjectFieldStart("add");
-                                    writeLiteUserInformation(addedByRelationship.getEndNode(), jg);
-                                    jg.writeNumberField("date",(long) addedByRelationship.getProperty("date"));
-                                    jg.writeEndObject();
+                            jg.writeStartObject();
 
-                                    Node runInfoNode = getSubjectNodeFromEventNode(qualityControlNode);
+                            jg.writeNumberField("eventNodeId", qualityControlNode.getId());
+                            jg.writeStringField("event", "Quality Control");
+                            jg.writeBooleanField("value", (boolean) qualityControlNode.getProperty("passOrFail"));
+                            if (qualityControlNode.hasProperty("evidence")) jg.writeStringField("evidence", qualityControlNode.getProperty("evidence").toString());
 
-                                    writeRunInformation(runInfoNode, jg);
-                                    writeSampleInformation(runInfoNode.getSingleRelationship(VariantDatabase.getHasAnalysisRelationship(), Direction.INCOMING).getStartNode(), jg);
+                            jg.writeObjectFieldStart("add");
+                            writeLiteUserInformation(ctx, addedByRelationship.getEndNode(), jg);
+                            jg.writeNumberField("date",(long) addedByRelationship.getProperty("date"));
+                            jg.writeEndObject();
 
-                                    jg.writeEndObject();
+                            Node runInfoNode = getSubjectNodeFromEventNode(qualityControlNode);
 
-                                }
+                            writeRunInformation(runInfoNode, jg);
+                            writeSampleInformation(runInfoNode.getSingleRelationship(VariantDatabase.getHasAnalysisRelationship(), Direction.INCOMING).getStartNode(), jg);
 
-                            }
+                            jg.writeEndObject();
 
                         }
                     }
@@ -1385,7 +1961,9 @@ public class VariantDatabasePlugin
                     Parameters parameters = objectMapper.readValue(json, Parameters.class);
                     Node userNode = null;
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                    jg.writeStartObject();
+
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
 
                         //find variant
                         try (ResourceIterator<Node> users = graphDb.findNodes(VariantDatabase.getUserLabel(), "userId", parameters.userId)) {
@@ -1395,10 +1973,9 @@ public class VariantDatabasePlugin
                             users.close();
                         }
 
+                        if (userNode != null) writeFullUserInformation(userNode, jg);
                     }
 
-                    jg.writeStartObject();
-                    if (userNode != null) writeFullUserInformation(userNode, jg);
                     jg.writeEndObject();
 
                     jg.flush();
@@ -1497,13 +2074,18 @@ public class VariantDatabasePlugin
                     throw new CredentialException("Admin rights required for this operation.");
                 }
 
+                if (EventChain.getUserEventStatus(eventNode) != UserEventStatus.PENDING_AUTH) {
+                    throw new IllegalArgumentException("Event has no pending authorisation");
+                }
+
             }
 
-            if (getUserEventStatus(eventNode) != UserEventStatus.PENDING_AUTH) {
+            //another request may have authorised it since the check
+            if (!authUserEvent(eventNode, userNode, parameters.addOrRemove)) {
                 throw new IllegalArgumentException("Event has no pending authorisation");
             }
 
-            authUserEvent(eventNode, userNode, parameters.addOrRemove);
+            onUserEventAuthorised(eventNode);
 
             return Response
                     .status(Response.Status.OK)
@@ -1526,219 +2108,168 @@ public class VariantDatabasePlugin
     }
 
     @POST
-    @Path("/report")
+    @Path("/admin/authevents")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response report(final String json) {
+    public Response adminAuthEvents(final String json) {
 
         try {
-            StreamingOutput stream = new StreamingOutput() {
 
-                @Override
-                public void write(OutputStream os) throws IOException, WebApplicationException {
+            Parameters parameters = objectMapper.readValue(json, Parameters.class);
+            final LinkedHashMap<Long, String> results = new LinkedHashMap<>();
+            final HashMap<Long, String> warnings = new HashMap<>();
+            ArrayList<UserEventAuth> userEventAuths = new ArrayList<>();
+            HashSet<Long> qcAcceptEventNodeIds = new HashSet<>();
+            Node userNode;
+
+            if (parameters.userEventAuths == null) {
+                throw new IllegalArgumentException("No events supplied");
+            }
 
-                    /*Force windows nl*/
-                    PrintWriter pw = new PrintWriter(os) {
-                        @Override
-                        public void println(String x) {
-                            print(x + "\r\n");
-                        }
-                        @Override
-                        public void println() {
-                            print("\r\n");
-                        }
-                    };
+            //validate all events in one pass
+            try (Transaction tx = graphDb.beginTx()) {
+                userNode = graphDb.getNodeById(parameters.userNodeId);
 
-                    Parameters parameters = objectMapper.readValue(json, Parameters.class);
-                    float maxAf;
-                    DateFormat dateFormat = new SimpleDateFormat("dd/MM/yy HH:mm:ss");
+                if (!(boolean) userNode.getProperty("admin")) {
+                    throw new CredentialException("Admin rights required for this operation.");
+                }
 
-                    try (Transaction tx = graphDb.beginTx()) {
+                for (UserEventAuth userEventAuth : parameters.userEventAuths){
 
-                        Node runInfoNode = graphDb.getNodeById(parameters.runInfoNodeId);
-                        Node sampleNode = runInfoNode.getSingleRelationship(VariantDatabase.getHasAnalysisRelationship(), Direction.INCOMING).getStartNode();
+                    if (userEventAuth.eventNodeId == null || userEventAuth.addOrRemove == null){
+                        throw new IllegalArgumentException("Each event requires eventNodeId and addOrRemove");
+                    }
+                    if (results.containsKey(userEventAuth.eventNodeId)){
+                        throw new IllegalArgumentException("Event " + userEventAuth.eventNodeId + " supplied more than once");
+                    }
 
-                        //headers
-                        pw.println("#Variant Report v1");
-                        pw.println("#Created " + graphDb.getNodeById(parameters.userNodeId).getProperty("fullName") + " " + dateFormat.format(new Date()));
-                        pw.println("#" + parameters.workflowName);
-                        pw.print("#SampleId\tWorklistId\tVariant\tGenotype\tQuality\tOccurrence\tdbSNP\tGERP++\tPhyloP\tPhastCons\t");
+                    try {
+                        Node eventNode = graphDb.getNodeById(userEventAuth.eventNodeId);
 
-                        //print pop freq header
-                        for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()) {
-                            pw.print("1KG_" + population.toString() + "\t");
+                        if (EventChain.getUserEventStatus(eventNode) != UserEventStatus.PENDING_AUTH){
+                            results.put(userEventAuth.eventNodeId, "Event has no pending authorisation");
+                            continue;
                         }
-                        pw.print("Max_1KG\t");
-                        for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()) {
-                            pw.print("ExAC_" + population.toString() + "\t");
+                        if (userEventAuth.addOrRemove && eventNode.hasLabel(VariantDatabase.getQualityControlLabel())){
+                            qcAcceptEventNodeIds.add(userEventAuth.eventNodeId);
                         }
-                        pw.print("Max_ExAC\t");
-
-                        pw.println("Gene\tTranscript\tTranscriptType\tTranscriptBiotype\tCanonicalTranscript\tPreferredTranscript\tConsequence\tSevere\tOMIM\tInternalClass\tClinVar\tHGVSc\tHGVSp\tLocation\tSIFT\tPolyPhen\tCodons");
-
-                        //loop over variants node ids
-                        for (long variantNodeId : parameters.variantNodeIds){
-                            Node variantNode = graphDb.getNodeById(variantNodeId);
-                            Node lastActiveEventNode = getLastActiveUserEventNode(variantNode);
-
-                            //loop over selected variants
-                            for (Relationship relationship : variantNode.getRelationships(Direction.INCOMING)){
-                                if (relationship.getStartNode().getId() == parameters.runInfoNodeId){
-
-                                    for (Relationship consequenceRel : variantNode.getRelationships(Direction.OUTGOING)) {
-                                        Node annotationNode = consequenceRel.getEndNode();
-
-                                        if (annotationNode.hasLabel(VariantDatabase.getAnnotationLabel())){
-
-                                            for (Relationship inFeatureRel : annotationNode.getRelationships(Direction.OUTGOING, VariantDatabase.getInFeatureRelationship())) {
-                                                Node featureNode = inFeatureRel.getEndNode();
-
-                                                if (featureNode.hasLabel(VariantDatabase.getFeatureLabel())){
-
-                                                    for (Relationship biotypeRel : featureNode.getRelationships(Direction.INCOMING)) {
-                                                        Node symbolNode = biotypeRel.getStartNode();
-
-                                                        if (symbolNode.hasLabel(VariantDatabase.getSymbolLabel())){
-
-                                                            //sample
-                                                            if (sampleNode.hasProperty("sampleId")) pw.print(sampleNode.getProperty("sampleId").toString() + "\t"); else pw.print("\t");
-                                                            if (runInfoNode.hasProperty("worklistId")) pw.print(runInfoNode.getProperty("worklistId").toString() + "\t"); else pw.print("\t");
-
-                                                            //variant
-                                                            if (variantNode.hasProperty("variantId")) pw.print(variantNode.getProperty("variantId").toString() + "\t"); else pw.print("\t");
-                                                            pw.print(getVariantInheritance(relationship.getType().name()) + "\t");
-                                                            if (relationship.hasProperty("quality")) pw.print(relationship.getProperty("quality").toString() + "\t"); else pw.print("\t");
-                                                            pw.print(getGlobalVariantOccurrenceQcPass(variantNode) + "\t");
-                                                            if (variantNode.hasProperty("dbSnpId")) pw.print(variantNode.getProperty("dbSnpId").toString() + "\t"); else pw.print("\t");
-                                                            if (variantNode.hasProperty("gerp")) pw.print(variantNode.getProperty("gerp").toString() + "\t"); else pw.print("\t");
-                                                            if (variantNode.hasProperty("phyloP")) pw.print(variantNode.getProperty("phyloP").toString() + "\t"); else pw.print("\t");
-                                                            if (variantNode.hasProperty("phastCons")) pw.print(variantNode.getProperty("phastCons").toString() + "\t"); else pw.print("\t");
-
-                                                            //1kg
-                                                            maxAf = -1f;
-                                                            for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()) {
-                                                                if (variantNode.hasProperty("kGPhase3" + population.toString() + "Af")){
-                                                                    pw.print(variantNode.getProperty("kGPhase3" + population.toString() + "Af").toString() + "\t");
+                    } catch (NotFoundException e){
+                        results.put(userEventAuth.eventNodeId, "Event not found");
+                        continue;
+                    }
 
-                                                                    float tmp = (float) variantNode.getProperty("kGPhase3" + population.toString() + "Af");
-                                                                    if (tmp > maxAf) maxAf = tmp;
+                    results.put(userEventAuth.eventNodeId, null);
+                    userEventAuths.add(userEventAuth);
+                }
 
-                                                                } else {
-                                                                    pw.print("\t");
-                                                                }
-                                                            }
-                                                            if (maxAf != -1f){
-                                                                pw.print(Float.toString(maxAf) + "\t");
-                                                            } else {
-                                                                pw.print("0\t");
-                                                            }
+            }
 
-                                                            //ExAC
-                                                            maxAf = -1f;
-                                                            for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()) {
-                                                                if (variantNode.hasProperty("exac" + population.toString() + "Af")){
-                                                                    pw.print(variantNode.getProperty("exac" + population.toString() + "Af").toString() + "\t");
+            //commit in chunks; accepting a QC result rewrites the occurrence counters of every variant in its run, so it commits on its own
+            ArrayList<List<UserEventAuth>> chunks = new ArrayList<>();
+            ArrayList<UserEventAuth> pending = new ArrayList<>();
 
-                                                                    float tmp = (float) variantNode.getProperty("exac" + population.toString() + "Af");
-                                                                    if (tmp > maxAf) maxAf = tmp;
+            for (UserEventAuth userEventAuth : userEventAuths){
+                if (qcAcceptEventNodeIds.contains(userEventAuth.eventNodeId)){
+                    chunks.add(Collections.singletonList(userEventAuth));
+                    continue;
+                }
 
-                                                                } else {
-                                                                    pw.print("\t");
-                                                                }
-                                                            }
-                                                            if (maxAf != -1f){
-                                                                pw.print(Float.toString(maxAf) + "\t");
-                                                            } else {
-                                                                pw.print("0\t");
-                                                            }
+                pending.add(userEventAuth);
 
-                                                            //gene & transcript
-                                                            if (symbolNode.hasProperty("symbolId")) pw.print(symbolNode.getProperty("symbolId").toString() + "\t"); else pw.print("\t");
-                                                            if (featureNode.hasProperty("featureId")) pw.print(featureNode.getProperty("featureId").toString() + "\t"); else pw.print("\t");
-                                                            if (featureNode.hasProperty("featureType")) pw.print(featureNode.getProperty("featureType").toString() + "\t"); else pw.print("\t");
-                                                            pw.print(getTranscriptBiotype(biotypeRel.getType().name()) + "\t");
+                if (pending.size() == 100){
+                    chunks.add(pending);
+                    pending = new ArrayList<>();
+                }
+            }
+            if (!pending.isEmpty()) chunks.add(pending);
 
-                                                            //transcript choice
-                                                            if (featureNode.hasLabel(VariantDatabase.getCanonicalLabel())) {
-                                                                pw.print("TRUE\t");
-                                                            } else {
-                                                                pw.print("FALSE\t");
-                                                            }
+            for (List<UserEventAuth> chunk : chunks) {
 
-                                                            //internal choice
-                                                            Node lastActiveEventFeaturePrefNode =  getLastActiveUserEventNode(featureNode);
-                                                            if (lastActiveEventFeaturePrefNode != null){
-                                                                pw.print(lastActiveEventFeaturePrefNode.getProperty("preference").toString() + "\t");
-                                                            } else {
-                                                                pw.print("\t");
-                                                            }
+                ArrayList<UserEventAuth> authorised = new ArrayList<>();
 
-                                                            //functional annotations
-                                                            String consequence = getFunctionalConsequence(consequenceRel.getType().name());
-                                                            pw.print(consequence + "\t");
-                                                            pw.print(isConsequenceSevere(consequence) + "\t");
+                try (Transaction tx = graphDb.beginTx()) {
+                    for (UserEventAuth userEventAuth : chunk){
 
-                                                            //omim
-                                                            for (Relationship hasAssociatedSymbol : symbolNode.getRelationships(Direction.INCOMING, VariantDatabase.getHasAssociatedSymbol())){
-                                                                Node disorderNode = hasAssociatedSymbol.getStartNode();
-                                                                pw.print(disorderNode.getProperty("disorder").toString() + ";");
-                                                            }
-                                                            pw.print("\t");
+                        //another request may have authorised it since validation
+                        if (authUserEvent(graphDb.getNodeById(userEventAuth.eventNodeId), userNode, userEventAuth.addOrRemove)) {
+                            authorised.add(userEventAuth);
+                        } else {
+                            results.put(userEventAuth.eventNodeId, "Event has no pending authorisation");
+                        }
 
-                                                            if (lastActiveEventNode != null){
-                                                                pw.print(lastActiveEventNode.getProperty("classification").toString());
-                                                            }
-                                                            pw.print("\t");
+                    }
+                    tx.success();
+                } catch (Exception e) {
+                    logger.error("Could not authorise events: " + e.getMessage());
 
-                                                            if (variantNode.hasProperty("clinvar")){
-                                                                int[] clinvarCodes = (int[]) variantNode.getProperty("clinvar");
-                                                                for (int i = 0; i < clinvarCodes.length; ++i){
-                                                                    pw.print(ClinVarCode.get(clinvarCodes[i]).name());
-                                                                    if (i != clinvarCodes.length - 1) pw.print(";");
-                                                                }
-                                                            }
-                                                            pw.print("\t");
+                    for (UserEventAuth userEventAuth : chunk){
+                        results.put(userEventAuth.eventNodeId, "Could not authorise event: " + e.getMessage());
+                    }
 
-                                                            if (annotationNode.hasProperty("hgvsc")) pw.print(annotationNode.getProperty("hgvsc").toString() + "\t"); else pw.print("\t");
-                                                            if (annotationNode.hasProperty("hgvsp")) pw.print(annotationNode.getProperty("hgvsp").toString() + "\t"); else pw.print("\t");
+                    continue;
+                }
 
-                                                            if (annotationNode.hasProperty("exon")) {
-                                                                pw.print(annotationNode.getProperty("exon").toString() + "\t");
-                                                            } else if (annotationNode.hasProperty("intron")) {
-                                                                pw.print(annotationNode.getProperty("intron").toString() + "\t");
-                                                            } else {
-                                                                pw.print("\t");
-                                                            }
+                //committed; refresh caches per event so one failure does not hide the others
+                for (UserEventAuth userEventAuth : authorised){
+                    results.put(userEventAuth.eventNodeId, userEventAuth.addOrRemove ? UserEventStatus.ACTIVE.toString() : UserEventStatus.REJECTED.toString());
 
-                                                            if (annotationNode.hasProperty("sift")) pw.print(annotationNode.getProperty("sift").toString() + "\t"); else pw.print("\t");
-                                                            if (annotationNode.hasProperty("polyphen")) pw.print(annotationNode.getProperty("polyphen").toString() + "\t"); else pw.print("\t");
-                                                            if (annotationNode.hasProperty("codons")) pw.println(annotationNode.getProperty("codons").toString()); else pw.println();
+                    try {
+                        onUserEventAuthorised(graphDb.getNodeById(userEventAuth.eventNodeId));
+                    } catch (Exception e) {
+                        logger.error("Authorised event " + userEventAuth.eventNodeId + " but could not refresh caches: " + e.getMessage());
+                        warnings.put(userEventAuth.eventNodeId, "Could not refresh caches: " + e.getMessage());
+                    }
+                }
 
-                                                        }
+            }
 
-                                                    }
+            StreamingOutput stream = new StreamingOutput() {
 
-                                                }
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
 
-                                            }
+                    jg.writeStartArray();
 
-                                        }
+                    for (Map.Entry<Long, String> result : results.entrySet()){
+                        jg.writeStartObject();
 
-                                    }
-                                }
-                            }
+                        jg.writeNumberField("eventNodeId", result.getKey());
 
+                        if (result.getValue().equals(UserEventStatus.ACTIVE.toString()) || result.getValue().equals(UserEventStatus.REJECTED.toString())){
+                            jg.writeBooleanField("success", true);
+                            jg.writeStringField("status", result.getValue());
+                            if (warnings.containsKey(result.getKey())) jg.writeStringField("warning", warnings.get(result.getKey()));
+                        } else {
+                            jg.writeBooleanField("success", false);
+                            jg.writeStringField("error", result.getValue());
                         }
 
+                        jg.writeEndObject();
                     }
 
-                    pw.flush();
-                    pw.close();
+                    jg.writeEndArray();
+
+                    jg.flush();
+                    jg.close();
                 }
 
             };
 
             return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
+
+        } catch (CredentialException e){
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.FORBIDDEN)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
         } catch (Exception e) {
             logger.error(e.getMessage());
             return Response
@@ -1746,70 +2277,46 @@ public class VariantDatabasePlugin
                     .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
                     .build();
         }
+
     }
 
     @GET
-    @Path("/omim/add")
+    @Path("/admin/backfill/populationfrequency")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response omimAdd() {
+    public Response adminBackfillPopulationFrequency() {
 
         try {
 
-            String inputLine;
-            Node symbolNode, disorderNode;
-            URL omimFtp = new URL("http://data.omim.org/downloads/NFUI_mdqQbaQADxKesNmgg/morbidmap.txt");
-            BufferedReader in = new BufferedReader(new InputStreamReader(omimFtp.openStream()));
+            createPopulationFrequencyIndexes();
 
-            //add to database
-            try (Transaction tx = graphDb.beginTx()) {
-                while ((inputLine = in.readLine()) != null){
+            long[] variantNodeIds = getNodeIds(VariantDatabase.getVariantLabel());
 
-                    if (Pattern.matches("^#.*", inputLine)) continue;
-                    String[] fields = inputLine.split("\t");
+            //commit in batches
+            for (int i = 0; i < variantNodeIds.length; i += 10000) {
 
-                    //match or create disorder
-                    ArrayList<Node> disorders = Neo4j.getNodes(graphDb, VariantDatabase.getDisorderLabel(), "disorder", fields[0].trim());
+                try (Transaction tx = graphDb.beginTx()) {
 
-                    if (disorders.size() == 0){
-                        disorderNode = graphDb.createNode(VariantDatabase.getDisorderLabel());
-                        disorderNode.setProperty("disorder", fields[0].trim());
-                    } else {
-                        disorderNode = disorders.get(0);
+                    for (int j = i; j < Math.min(i + 10000, variantNodeIds.length); ++j) {
+                        setMaxPopulationFrequency(graphDb.getNodeById(variantNodeIds[j]));
                     }
 
-                    //match or create symbol
-                    for (String field : fields[1].split(",")){
-                        String symbolId = field.trim();
-
-                        ArrayList<Node> symbols = Neo4j.getNodes(graphDb, VariantDatabase.getSymbolLabel(), "symbolId", symbolId);
-
-                        if (symbols.size() == 0){
-                            symbolNode = graphDb.createNode(VariantDatabase.getSymbolLabel());
-                            symbolNode.setProperty("symbolId", symbolId);
-                        } else {
-                            symbolNode = symbols.get(0);
-                        }
+                    tx.success();
+                }
 
-                        //check relationship does not already exist & link symbol and disorder
-                        boolean connected = false;
-                        for (Relationship hasAssociatedSymbolRelationship : disorderNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasAssociatedSymbol())){
-                            if (hasAssociatedSymbolRelationship.getEndNode().getProperty("symbolId").toString().equals(symbolNode.getProperty("symbolId").toString())){
-                                connected = true;
-                                break;
-                            }
-                        }
+            }
 
-                        if (!connected){
-                            disorderNode.createRelationshipTo(symbolNode, VariantDatabase.getHasAssociatedSymbol());
-                        }
+            //record that every variant now carries an indexed max
+            try (Transaction tx = graphDb.beginTx()) {
+                Node pluginMetadataNode = getPluginMetadataNode();
+                if (pluginMetadataNode == null) pluginMetadataNode = graphDb.createNode(pluginMetadataLabel);
 
-                    }
+                pluginMetadataNode.setProperty("maxPopulationFrequencyBackfilled", true);
 
-                }
                 tx.success();
             }
 
-            in.close();
+            maxPopulationFrequencyCurrent = true;
+            logger.info("Backfilled max population frequency for " + variantNodeIds.length + " variants");
 
             return Response
                     .status(Response.Status.OK)
@@ -1826,32 +2333,47 @@ public class VariantDatabasePlugin
     }
 
     @GET
-    @Path("/omim/remove")
+    @Path("/admin/backfill/severe")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response omimRemove() {
+    public Response adminBackfillSevere() {
 
         try {
 
-            try (Transaction tx = graphDb.beginTx()) {
-                try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getDisorderLabel())) {
+            String severityFingerprint = ConsequenceCatalogue.getSeverityFingerprint();
+            long[] variantNodeIds = getNodeIds(VariantDatabase.getVariantLabel());
 
-                    while (iter.hasNext()) {
-                        Node disorderNode = iter.next();
+            //commit in batches
+            for (int i = 0; i < variantNodeIds.length; i += 10000) {
 
-                        //delete relationships
-                        for (Relationship hasAssociatedSymbolRelationship : disorderNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasAssociatedSymbol())){
-                            hasAssociatedSymbolRelationship.delete();
-                        }
+                try (Transaction tx = graphDb.beginTx()) {
 
-                        //delete node
-                        disorderNode.delete();
+                    for (int j = i; j < Math.min(i + 10000, variantNodeIds.length); ++j) {
+                        Node variantNode = graphDb.getNodeById(variantNodeIds[j]);
+
+                        setSevereConsequence(variantNode);
 
+                        //labels written before the outcome was stored as a property
+                        if (variantNode.hasLabel(severeConsequenceLabel)) variantNode.removeLabel(severeConsequenceLabel);
                     }
+
+                    tx.success();
                 }
 
+            }
+
+            //record which severity table the flags were written with
+            try (Transaction tx = graphDb.beginTx()) {
+                Node pluginMetadataNode = getPluginMetadataNode();
+                if (pluginMetadataNode == null) pluginMetadataNode = graphDb.createNode(pluginMetadataLabel);
+
+                pluginMetadataNode.setProperty("severityFingerprint", severityFingerprint);
+
                 tx.success();
             }
 
+            severeConsequenceCurrent = true;
+            logger.info("Backfilled severe consequence flags for " + variantNodeIds.length + " variants");
+
             return Response
                     .status(Response.Status.OK)
                     .build();
@@ -1867,89 +2389,53 @@ public class VariantDatabasePlugin
     }
 
     @GET
-    @Path("/clinvar/add")
+    @Path("/admin/backfill/userevents")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response clinvarAdd() {
-        VCFCodec codec = new VCFCodec();
-
-        //read VCF from clinvar, decompress and import on the fly
-        try (LineIteratorImpl lineIteratorImpl = new LineIteratorImpl(LineReaderUtil.fromBufferedStream(new GZIPInputStream(new URL("ftp://ftp.ncbi.nlm.nih.gov/pub/clinvar/vcf_GRCh37/clinvar.vcf.gz").openStream())))) {
-            codec.readActualHeader(lineIteratorImpl);
-
-            while(lineIteratorImpl.hasNext())
-            {
-                VariantContext variantContext = codec.decode(lineIteratorImpl.next());
-
-                if (variantContext.getAttribute("CLNALLE") instanceof String) {
-                    if (variantContext.getAttribute("CLNSIG") == null) continue; //not always present
-
-                    int clinAllele = Integer.parseInt((String) variantContext.getAttribute("CLNALLE"));
-                    if (clinAllele == -1) continue; //A value of -1 indicates that no allele was found to match a corresponding HGVS allele name
-                    String clinSig = (String) variantContext.getAttribute("CLNSIG");
+    public Response adminBackfillUserEvents() {
 
-                    GenomeVariant genomeVariant = new GenomeVariant(variantContext.getContig(), variantContext.getStart(), variantContext.getReference().getBaseString(), variantContext.getAlleles().get(clinAllele).getBaseString());
-                    genomeVariant.convertToMinimalRepresentation();
+        try {
 
-                    ArrayList<Node> nodes = Neo4j.getNodes(graphDb, VariantDatabase.getVariantLabel(), "variantId", genomeVariant.toString());
+            Label[] subjectLabels = {VariantDatabase.getVariantLabel(), VariantDatabase.getFeatureLabel(), VariantDatabase.getRunInfoLabel()};
+            int subjects = 0, events = 0;
 
-                    if (nodes.size() == 1){
+            for (Label subjectLabel : subjectLabels){
+                long[] subjectNodeIds = getNodeIds(subjectLabel);
 
-                        logger.info("Adding clinvar to " + genomeVariant.toString());
+                //commit in batches
+                for (int i = 0; i < subjectNodeIds.length; i += 10000) {
 
-                        String[] clinSigsString = clinSig.split("\\|");
-                        int[] clinSigsInt = new int[clinSigsString.length];
+                    try (Transaction tx = graphDb.beginTx()) {
 
-                        for (int i = 0; i < clinSigsString.length; ++i){
-                            clinSigsInt[i] = Integer.parseInt(clinSigsString[i]);
-                        }
+                        for (int j = i; j < Math.min(i + 10000, subjectNodeIds.length); ++j) {
+                            Node subjectNode = graphDb.getNodeById(subjectNodeIds[j]);
 
-                        try (Transaction tx = graphDb.beginTx()) {
-                            nodes.get(0).setProperty("clinvar", clinSigsInt);
-                            tx.success();
+                            if (subjectNode.hasRelationship(Direction.OUTGOING, VariantDatabase.getHasUserEventRelationship())){
+                                setUserEventPointers(subjectNode);
+                                events += backfillUserEventChain(subjectNode);
+                                subjects++;
+                            }
                         }
 
+                        tx.success();
                     }
 
-                } else if (variantContext.getAttribute("CLNALLE") instanceof ArrayList) {
-                    if (variantContext.getAttribute("CLNSIG") == null) continue; //not always present
-
-                    ArrayList<String> clinSigs = (ArrayList<String>) variantContext.getAttribute("CLNSIG");
-                    ArrayList<String> clinAlleles = (ArrayList<String>) variantContext.getAttribute("CLNALLE");
-
-                    for (int n = 0; n < clinAlleles.size(); ++n){
-
-                        int clinAllele = Integer.parseInt(clinAlleles.get(n));
-                        if (clinAllele == -1) continue; //A value of -1 indicates that no allele was found to match a corresponding HGVS allele name
-
-                        GenomeVariant genomeVariant = new GenomeVariant(variantContext.getContig(), variantContext.getStart(), variantContext.getReference().getBaseString(), variantContext.getAlleles().get(clinAllele).getBaseString());
-                        genomeVariant.convertToMinimalRepresentation();
-
-                        ArrayList<Node> nodes = Neo4j.getNodes(graphDb, VariantDatabase.getVariantLabel(), "variantId", genomeVariant.toString());
-
-                        if (nodes.size() == 1){
-
-                            logger.info("Adding clinvar to " + genomeVariant.toString());
-
-                            String[] clinSigsString = clinSigs.get(n).split("\\|");
-                            int[] clinSigsInt = new int[clinSigsString.length];
-
-                            for (int i = 0; i < clinSigsString.length; ++i){
-                                clinSigsInt[i] = Integer.parseInt(clinSigsString[i]);
-                            }
-
-                            try (Transaction tx = graphDb.beginTx()) {
-                                nodes.get(0).setProperty("clinvar", clinSigsInt);
-                                tx.success();
-                            }
+                }
 
-                        }
+            }
 
-                    }
+            //record that events pending before the PendingAuth label existed now carry it
+            try (Transaction tx = graphDb.beginTx()) {
+                Node pluginMetadataNode = getPluginMetadataNode();
+                if (pluginMetadataNode == null) pluginMetadataNode = graphDb.createNode(pluginMetadataLabel);
 
-                }
+                pluginMetadataNode.setProperty("pendingAuthLabelled", true);
 
+                tx.success();
             }
 
+            pendingAuthLabelCurrent = true;
+            logger.info("Backfilled user event pointers for " + subjects + " nodes and subject links for " + events + " events");
+
             return Response
                     .status(Response.Status.OK)
                     .build();
@@ -1965,27 +2451,52 @@ public class VariantDatabasePlugin
     }
 
     @GET
-    @Path("/clinvar/remove")
+    @Path("/admin/rebuild/occurrence")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response clinvarRemove() {
+    public Response adminRebuildOccurrence() {
+
         try {
 
+            ArrayList<Long> variantNodeIds = new ArrayList<>();
+            int inconsistent = 0;
+
             try (Transaction tx = graphDb.beginTx()) {
                 try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getVariantLabel())) {
-
                     while (iter.hasNext()) {
-                        Node variantNode = iter.next();
+                        variantNodeIds.add(iter.next().getId());
+                    }
+                }
+            }
 
-                        if (variantNode.hasProperty("clinvar")){
-                            variantNode.removeProperty("clinvar");
+            //commit in batches
+            for (int i = 0; i < variantNodeIds.size(); i += 10000) {
+
+                try (Transaction tx = graphDb.beginTx()) {
+
+                    for (long variantNodeId : variantNodeIds.subList(i, Math.min(i + 10000, variantNodeIds.size()))) {
+                        Node variantNode = graphDb.getNodeById(variantNodeId);
+
+                        //lock before counting so a QC authorisation either commits first or applies its delta after; run status is not memoised across variants for the same reason
+                        tx.acquireWriteLock(variantNode);
+                        int[] occurrence = countVariantOccurrenceQcPass(null, variantNode);
+
+                        if (variantNode.hasProperty("hetOccurrenceQcPass") && variantNode.hasProperty("homOccurrenceQcPass") &&
+                                ((int) variantNode.getProperty("hetOccurrenceQcPass") != occurrence[0] || (int) variantNode.getProperty("homOccurrenceQcPass") != occurrence[1])){
+                            logger.warn("Occurrence counters for variant node " + variantNodeId + " were inconsistent");
+                            inconsistent++;
                         }
 
+                        variantNode.setProperty("hetOccurrenceQcPass", occurrence[0]);
+                        variantNode.setProperty("homOccurrenceQcPass", occurrence[1]);
                     }
+
+                    tx.success();
                 }
 
-                tx.success();
             }
 
+            logger.info("Rebuilt occurrence counters for " + variantNodeIds.size() + " variants, " + inconsistent + " were inconsistent");
+
             return Response
                     .status(Response.Status.OK)
                     .build();
@@ -2000,372 +2511,552 @@ public class VariantDatabasePlugin
 
     }
 
-    /*workflows*/
-    @Workflow(name = "Rare Variant Workflow v1", description = "A workflow to prioritise rare calls")
-    public void runRareVariantWorkflowv1(JsonGenerator jg, HashSet<Long> excludeRunInfoNodes, HashSet<Long> includePanelNodes, Node runInfoNode) throws IOException {
-
-        boolean includeCallsFromPanel = false, excludeCallsFromSample = false;
-        int class1Calls = 0, not1KGRareVariants = 0, notExACRareVariants = 0, passVariants = 0, total = 0;
+    @POST
+    @Path("/report")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response report(final String json) {
 
-        if (includePanelNodes.size() > 0) includeCallsFromPanel = true;
-        if (excludeRunInfoNodes.size() > 0) excludeCallsFromSample = true;
+        try {
+            StreamingOutput stream = new StreamingOutput() {
 
-        jg.writeStartObject();
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
 
-        jg.writeFieldName("variants");
-        jg.writeStartArray();
+                    /*Force windows nl*/
+                    PrintWriter pw = new PrintWriter(os) {
+                        @Override
+                        public void println(String x) {
+                            print(x + "\r\n");
+                        }
+                        @Override
+                        public void println() {
+                            print("\r\n");
+                        }
+                    };
 
-        try (Transaction tx = graphDb.beginTx()) {
-            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING)) {
+                    Parameters parameters = objectMapper.readValue(json, Parameters.class);
+                    float maxAf;
+                    int populationFrequencyRow;
+                    DateFormat dateFormat = new SimpleDateFormat("dd/MM/yy HH:mm:ss");
 
-                if (!inheritanceRel.getType().equals(VariantDatabase.getHasHomVariantRelationship()) &&
-                        !inheritanceRel.getType().equals(VariantDatabase.getHasHetVariantRelationship())){
-                    continue;
-                }
+                    try (ReadContext ctx = new ReadContext(graphDb)) {
 
-                Node variantNode = inheritanceRel.getEndNode();
+                        Node runInfoNode = graphDb.getNodeById(parameters.runInfoNodeId);
+                        Node sampleNode = runInfoNode.getSingleRelationship(VariantDatabase.getHasAnalysisRelationship(), Direction.INCOMING).getStartNode();
 
-                //check if variant belongs to supplied panel
-                if (includeCallsFromPanel && !variantBelongsToVirtualPanel(variantNode, includePanelNodes)){
-                    continue;
-                }
+                        //headers
+                        pw.println("#Variant Report v1");
+                        pw.println("#Created " + graphDb.getNodeById(parameters.userNodeId).getProperty("fullName") + " " + dateFormat.format(new Date()));
+                        pw.println("#" + parameters.workflowName);
+                        pw.print("#SampleId\tWorklistId\tVariant\tGenotype\tQuality\tOccurrence\tdbSNP\tGERP++\tPhyloP\tPhastCons\t");
 
-                //check if variant is not present in exclusion samples
-                if (excludeCallsFromSample && variantPresentInExclusionSamples(variantNode, excludeRunInfoNodes)){
-                    continue;
-                }
+                        //print pop freq header
+                        for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()) {
+                            pw.print("1KG_" + population.toString() + "\t");
+                        }
+                        pw.print("Max_1KG\t");
+                        for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()) {
+                            pw.print("ExAC_" + population.toString() + "\t");
+                        }
+                        pw.print("Max_ExAC\t");
 
-                jg.writeStartObject();
+                        pw.println("Gene\tTranscript\tTranscriptType\tTranscriptBiotype\tCanonicalTranscript\tPreferredTranscript\tConsequence\tSevere\tOMIM\tInternalClass\tClinVar\tHGVSc\tHGVSp\tLocation\tSIFT\tPolyPhen\tCodons");
 
-                writeVariantInformation(variantNode, jg);
-                jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
-                jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
+                        //loop over variants node ids
+                        for (long variantNodeId : parameters.variantNodeIds){
+                            Node variantNode = graphDb.getNodeById(variantNodeId);
+                            Node lastActiveEventNode = getLastActiveUserEventNode(variantNode);
 
-                //stratify variants
-                Node lastActiveEventNode = getLastActiveUserEventNode(variantNode);
-                if (lastActiveEventNode != null && lastActiveEventNode.hasProperty("classification")) {
+                            //find the call in the selected run
+                            Relationship relationship = getInheritanceRelationship(runInfoNode, variantNode);
+                            if (relationship != null){
 
-                    if ((int) lastActiveEventNode.getProperty("classification") == 1){
-                        jg.writeNumberField("filter", 0);
-                        class1Calls++;
-                    } else {
-                        jg.writeNumberField("filter", 3);
-                        passVariants++;
-                    }
+                                for (Relationship consequenceRel : variantNode.getRelationships(Direction.OUTGOING)) {
+                                    Node annotationNode = consequenceRel.getEndNode();
 
-                } else if (!isExACRareVariant(variantNode, 0.01)) {
-                    jg.writeNumberField("filter", 1);
-                    notExACRareVariants++;
-                } else if (!is1KGRareVariant(variantNode, 0.01)) {
-                    jg.writeNumberField("filter", 2);
-                    not1KGRareVariants++;
-                } else {
-                    jg.writeNumberField("filter", 3);
-                    passVariants++;
-                }
+                                    if (annotationNode.hasLabel(VariantDatabase.getAnnotationLabel())){
 
-                total++;
+                                        for (Relationship inFeatureRel : annotationNode.getRelationships(Direction.OUTGOING, VariantDatabase.getInFeatureRelationship())) {
+                                            Node featureNode = inFeatureRel.getEndNode();
 
-                jg.writeEndObject();
+                                            if (featureNode.hasLabel(VariantDatabase.getFeatureLabel())){
 
-            }
+                                                for (Relationship biotypeRel : featureNode.getRelationships(Direction.INCOMING)) {
+                                                    Node symbolNode = biotypeRel.getStartNode();
 
-        }
+                                                    if (symbolNode.hasLabel(VariantDatabase.getSymbolLabel())){
 
-        jg.writeEndArray();
+                                                        //sample
+                                                        if (sampleNode.hasProperty("sampleId")) pw.print(sampleNode.getProperty("sampleId").toString() + "\t"); else pw.print("\t");
+                                                        if (runInfoNode.hasProperty("worklistId")) pw.print(runInfoNode.getProperty("worklistId").toString() + "\t"); else pw.print("\t");
 
-        //write filters
-        jg.writeFieldName("filters");
-        jg.writeStartArray();
+                                                        //variant
+                                                        if (variantNode.hasProperty("variantId")) pw.print(variantNode.getProperty("variantId").toString() + "\t"); else pw.print("\t");
+                                                        pw.print(getVariantInheritance(relationship.getType().name()) + "\t");
+                                                        if (relationship.hasProperty("quality")) pw.print(relationship.getProperty("quality").toString() + "\t"); else pw.print("\t");
+                                                        pw.print(getGlobalVariantOccurrenceQcPass(ctx, variantNode) + "\t");
+                                                        if (variantNode.hasProperty("dbSnpId")) pw.print(variantNode.getProperty("dbSnpId").toString() + "\t"); else pw.print("\t");
+                                                        if (variantNode.hasProperty("gerp")) pw.print(variantNode.getProperty("gerp").toString() + "\t"); else pw.print("\t");
+                                                        if (variantNode.hasProperty("phyloP")) pw.print(variantNode.getProperty("phyloP").toString() + "\t"); else pw.print("\t");
+                                                        if (variantNode.hasProperty("phastCons")) pw.print(variantNode.getProperty("phastCons").toString() + "\t"); else pw.print("\t");
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Class 1");
-        jg.writeNumberField("y", class1Calls);
-        jg.writeEndObject();
+                                                        //1kg
+                                                        maxAf = -1f;
+                                                        populationFrequencyRow = populationFrequencyStore.getRow(variantNode.getId());
+                                                        for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()) {
+                                                            float af = getKgAf(variantNode, populationFrequencyRow, population);
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "ExAC >1% Frequency");
-        jg.writeNumberField("y", notExACRareVariants);
-        jg.writeEndObject();
+                                                            if (!Float.isNaN(af)){
+                                                                pw.print(Float.toString(af) + "\t");
+                                                                maxAf = 0f;
+                                                            } else {
+                                                                pw.print("\t");
+                                                            }
+                                                        }
+                                                        if (maxAf != -1f){
+                                                            pw.print(Float.toString(getMaxKgAf(variantNode)) + "\t");
+                                                        } else {
+                                                            pw.print("0\t");
+                                                        }
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "1KG >1% Frequency");
-        jg.writeNumberField("y", not1KGRareVariants);
-        jg.writeEndObject();
+                                                        //ExAC
+                                                        maxAf = -1f;
+                                                        for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()) {
+                                                            float af = getExacAf(variantNode, populationFrequencyRow, population);
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Pass");
-        jg.writeNumberField("y", passVariants);
-        jg.writeEndObject();
+                                                            if (!Float.isNaN(af)){
+                                                                pw.print(Float.toString(af) + "\t");
+                                                                maxAf = 0f;
+                                                            } else {
+                                                                pw.print("\t");
+                                                            }
+                                                        }
+                                                        if (maxAf != -1f){
+                                                            pw.print(Float.toString(getMaxExacAf(variantNode)) + "\t");
+                                                        } else {
+                                                            pw.print("0\t");
+                                                        }
 
-        jg.writeEndArray();
+                                                        //gene & transcript
+                                                        if (symbolNode.hasProperty("symbolId")) pw.print(symbolNode.getProperty("symbolId").toString() + "\t"); else pw.print("\t");
+                                                        if (featureNode.hasProperty("featureId")) pw.print(featureNode.getProperty("featureId").toString() + "\t"); else pw.print("\t");
+                                                        if (featureNode.hasProperty("featureType")) pw.print(featureNode.getProperty("featureType").toString() + "\t"); else pw.print("\t");
+                                                        pw.print(ConsequenceCatalogue.getBiotype(biotypeRel.getType()) + "\t");
+
+                                                        //transcript choice
+                                                        if (featureNode.hasLabel(VariantDatabase.getCanonicalLabel())) {
+                                                            pw.print("TRUE\t");
+                                                        } else {
+                                                            pw.print("FALSE\t");
+                                                        }
 
-        jg.writeNumberField("total", total);
+                                                        //internal choice
+                                                        Boolean featurePreference = getFeaturePreference(featureNode);
+                                                        if (featurePreference != null){
+                                                            pw.print(featurePreference.toString() + "\t");
+                                                        } else {
+                                                            pw.print("\t");
+                                                        }
 
-        jg.writeEndObject();
+                                                        //functional annotations
+                                                        ConsequenceCatalogue.Entry consequence = ConsequenceCatalogue.getConsequence(consequenceRel.getType());
+                                                        pw.print(consequence.getName() + "\t");
+                                                        pw.print(consequence.isSevere() + "\t");
 
-    }
+                                                        //omim
+                                                        pw.print(getSymbolDisorders(symbolNode).joined);
+                                                        pw.print("\t");
 
-    @Deprecated
-    @Workflow(name = "Autosomal Dominant Workflow v1", description = "A workflow to prioritise rare autosomal heterozygous calls")
-    public void runAutosomalDominantWorkflowv1(JsonGenerator jg, HashSet<Long> excludeRunInfoNodes, HashSet<Long> includePanelNodes, Node runInfoNode) throws IOException {
+                                                        if (lastActiveEventNode != null){
+                                                            pw.print(lastActiveEventNode.getProperty("classification").toString());
+                                                        }
+                                                        pw.print("\t");
 
-        boolean includeCallsFromPanel = false, excludeCallsFromSample = false;
-        int notHeterozygousVariants = 0, notAutosomalVariants = 0, not1KGRareVariants = 0, notExACRareVariants = 0, passVariants = 0, total = 0;
+                                                        if (variantNode.hasProperty("clinvar")){
+                                                            int[] clinvarCodes = (int[]) variantNode.getProperty("clinvar");
+                                                            for (int i = 0; i < clinvarCodes.length; ++i){
+                                                                pw.print(ClinVarCode.get(clinvarCodes[i]).name());
+                                                                if (i != clinvarCodes.length - 1) pw.print(";");
+                                                            }
+                                                        }
+                                                        pw.print("\t");
 
-        if (includePanelNodes.size() > 0) includeCallsFromPanel = true;
-        if (excludeRunInfoNodes.size() > 0) excludeCallsFromSample = true;
+                                                        if (annotationNode.hasProperty("hgvsc")) pw.print(annotationNode.getProperty("hgvsc").toString() + "\t"); else pw.print("\t");
+                                                        if (annotationNode.hasProperty("hgvsp")) pw.print(annotationNode.getProperty("hgvsp").toString() + "\t"); else pw.print("\t");
 
-        jg.writeStartObject();
+                                                        if (annotationNode.hasProperty("exon")) {
+                                                            pw.print(annotationNode.getProperty("exon").toString() + "\t");
+                                                        } else if (annotationNode.hasProperty("intron")) {
+                                                            pw.print(annotationNode.getProperty("intron").toString() + "\t");
+                                                        } else {
+                                                            pw.print("\t");
+                                                        }
 
-        jg.writeFieldName("variants");
-        jg.writeStartArray();
+                                                        if (annotationNode.hasProperty("sift")) pw.print(annotationNode.getProperty("sift").toString() + "\t"); else pw.print("\t");
+                                                        if (annotationNode.hasProperty("polyphen")) pw.print(annotationNode.getProperty("polyphen").toString() + "\t"); else pw.print("\t");
+                                                        if (annotationNode.hasProperty("codons")) pw.println(annotationNode.getProperty("codons").toString()); else pw.println();
 
-        try (Transaction tx = graphDb.beginTx()) {
+                                                    }
 
-            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING)) {
-                Node variantNode = inheritanceRel.getEndNode();
+                                                }
 
-                //check if variant belongs to supplied panel
-                if (includeCallsFromPanel && !variantBelongsToVirtualPanel(variantNode, includePanelNodes)){
-                    continue;
-                }
+                                            }
 
-                //check if variant is not present in exclusion samples
-                if (excludeCallsFromSample && variantPresentInExclusionSamples(variantNode, excludeRunInfoNodes)){
-                    continue;
-                }
+                                        }
 
-                jg.writeStartObject();
+                                    }
 
-                writeVariantInformation(variantNode, jg);
-                jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
-                jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
+                                }
+                            }
 
-                //stratify variants
-                if (inheritanceRel.isType(VariantDatabase.getHasHomVariantRelationship())) {
-                    jg.writeNumberField("filter", 0);
-                    notHeterozygousVariants++;
-                } else if (!variantNode.hasLabel(VariantDatabase.getAutosomeLabel())) {
-                    jg.writeNumberField("filter", 1);
-                    notAutosomalVariants++;
-                } else if (!isExACRareVariant(variantNode, 0.01)) {
-                    jg.writeNumberField("filter", 2);
-                    notExACRareVariants++;
-                } else if (!is1KGRareVariant(variantNode, 0.01)) {
-                    jg.writeNumberField("filter", 3);
-                    not1KGRareVariants++;
-                } else {
-                    jg.writeNumberField("filter", 4);
-                    passVariants++;
-                }
+                        }
 
-                total++;
+                    }
 
-                jg.writeEndObject();
+                    pw.flush();
+                    pw.close();
+                }
 
-            }
+            };
 
+            return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
         }
+    }
 
-        jg.writeEndArray();
+    @GET
+    @Path("/omim/add")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response omimAdd() {
 
-        //write filters
-        jg.writeFieldName("filters");
-        jg.writeStartArray();
+        try {
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Homozygous");
-        jg.writeNumberField("y", notHeterozygousVariants);
-        jg.writeEndObject();
+            String inputLine;
+            Node symbolNode, disorderNode;
+            URL omimFtp = new URL("http://data.omim.org/downloads/NFUI_mdqQbaQADxKesNmgg/morbidmap.txt");
+            BufferedReader in = new BufferedReader(new InputStreamReader(omimFtp.openStream()));
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Non Autosomal");
-        jg.writeNumberField("y", notAutosomalVariants);
-        jg.writeEndObject();
+            //add to database
+            try (Transaction tx = graphDb.beginTx()) {
+                while ((inputLine = in.readLine()) != null){
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "ExAC >1% Frequency");
-        jg.writeNumberField("y", notExACRareVariants);
-        jg.writeEndObject();
+                    if (Pattern.matches("^#.*", inputLine)) continue;
+                    String[] fields = inputLine.split("\t");
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "1KG >1% Frequency");
-        jg.writeNumberField("y", not1KGRareVariants);
-        jg.writeEndObject();
+                    //match or create disorder
+                    ArrayList<Node> disorders = Neo4j.getNodes(graphDb, VariantDatabase.getDisorderLabel(), "disorder", fields[0].trim());
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Pass");
-        jg.writeNumberField("y", passVariants);
-        jg.writeEndObject();
+                    if (disorders.size() == 0){
+                        disorderNode = graphDb.createNode(VariantDatabase.getDisorderLabel());
+                        disorderNode.setProperty("disorder", fields[0].trim());
+                    } else {
+                        disorderNode = disorders.get(0);
+                    }
 
-        jg.writeEndArray();
+                    //match or create symbol
+                    for (String field : fields[1].split(",")){
+                        String symbolId = field.trim();
 
-        jg.writeNumberField("total", total);
+                        ArrayList<Node> symbols = Neo4j.getNodes(graphDb, VariantDatabase.getSymbolLabel(), "symbolId", symbolId);
 
-        jg.writeEndObject();
+                        if (symbols.size() == 0){
+                            symbolNode = graphDb.createNode(VariantDatabase.getSymbolLabel());
+                            symbolNode.setProperty("symbolId", symbolId);
+                        } else {
+                            symbolNode = symbols.get(0);
+                        }
 
-    }
+                        //check relationship does not already exist & link symbol and disorder
+                        boolean connected = false;
+                        for (Relationship hasAssociatedSymbolRelationship : disorderNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasAssociatedSymbol())){
+                            if (hasAssociatedSymbolRelationship.getEndNode().getProperty("symbolId").toString().equals(symbolNode.getProperty("symbolId").toString())){
+                                connected = true;
+                                break;
+                            }
+                        }
 
-    @Deprecated
-    @Workflow(name = "Rare Homozygous Workflow v1", description = "A workflow to prioritise rare homozygous calls")
-    public void runRareHomozygousWorkflowv1(JsonGenerator jg, HashSet<Long> excludeRunInfoNodes, HashSet<Long> includePanelNodes, Node runInfoNode) throws IOException {
+                        if (!connected){
+                            disorderNode.createRelationshipTo(symbolNode, VariantDatabase.getHasAssociatedSymbol());
+                        }
 
-        boolean includeCallsFromPanel = false, excludeCallsFromSample = false;
-        int notHomozygousVariants = 0, not1KGRareVariants = 0, notExACRareVariants = 0, passVariants = 0, total = 0;
+                    }
 
-        if (includePanelNodes.size() > 0) includeCallsFromPanel = true;
-        if (excludeRunInfoNodes.size() > 0) excludeCallsFromSample = true;
+                }
+                tx.success();
+            }
 
-        jg.writeStartObject();
+            in.close();
+            loadSymbolDisorders();
 
-        jg.writeFieldName("variants");
-        jg.writeStartArray();
+            return Response
+                    .status(Response.Status.OK)
+                    .build();
 
-        try (Transaction tx = graphDb.beginTx()) {
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
 
-            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING)) {
-                Node variantNode = inheritanceRel.getEndNode();
+    }
 
-                //check if variant belongs to supplied panel
-                if (includeCallsFromPanel && !variantBelongsToVirtualPanel(variantNode, includePanelNodes)){
-                    continue;
-                }
+    @GET
+    @Path("/omim/remove")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response omimRemove() {
 
-                //check if variant is not present in exclusion samples
-                if (excludeCallsFromSample && variantPresentInExclusionSamples(variantNode, excludeRunInfoNodes)){
-                    continue;
-                }
+        try {
 
-                jg.writeStartObject();
+            try (Transaction tx = graphDb.beginTx()) {
+                try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getDisorderLabel())) {
 
-                writeVariantInformation(variantNode, jg);
-                jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
-                jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
+                    while (iter.hasNext()) {
+                        Node disorderNode = iter.next();
 
-                //stratify variants
-                if (inheritanceRel.isType(VariantDatabase.getHasHetVariantRelationship())) {
-                    jg.writeNumberField("filter", 0);
-                    notHomozygousVariants++;
-                } else if (!isExACRareVariant(variantNode, 0.05)) {
-                    jg.writeNumberField("filter", 1);
-                    notExACRareVariants++;
-                } else if (!is1KGRareVariant(variantNode, 0.05)) {
-                    jg.writeNumberField("filter", 2);
-                    not1KGRareVariants++;
-                } else {
-                    jg.writeNumberField("filter", 3);
-                    passVariants++;
+                        //delete relationships
+                        for (Relationship hasAssociatedSymbolRelationship : disorderNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasAssociatedSymbol())){
+                            hasAssociatedSymbolRelationship.delete();
+                        }
+
+                        //delete node
+                        disorderNode.delete();
+
+                    }
                 }
 
-                total++;
+                tx.success();
+            }
+
+            loadSymbolDisorders();
 
-                jg.writeEndObject();
+            return Response
+                    .status(Response.Status.OK)
+                    .build();
+
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+
+    }
+
+    @GET
+    @Path("/clinvar/add")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response clinvarAdd() {
+        VCFCodec codec = new VCFCodec();
+
+        //read VCF from clinvar, decompress and import on the fly
+        try (LineIteratorImpl lineIteratorImpl = new LineIteratorImpl(LineReaderUtil.fromBufferedStream(new GZIPInputStream(new URL("ftp://ftp.ncbi.nlm.nih.gov/pub/clinvar/vcf_GRCh37/clinvar.vcf.gz").openStream())))) {
+            codec.readActualHeader(lineIteratorImpl);
+
+            while(lineIteratorImpl.hasNext())
+            {
+                VariantContext variantContext = codec.decode(lineIteratorImpl.next());
+
+                if (variantContext.getAttribute("CLNALLE") instanceof String) {
+                    if (variantContext.getAttribute("CLNSIG") == null) continue; //not always present
+
+                    int clinAllele = Integer.parseInt((String) variantContext.getAttribute("CLNALLE"));
+                    if (clinAllele == -1) continue; //A value of -1 indicates that no allele was found to match a corresponding HGVS allele name
+                    String clinSig = (String) variantContext.getAttribute("CLNSIG");
+
+                    GenomeVariant genomeVariant = new GenomeVariant(variantContext.getContig(), variantContext.getStart(), variantContext.getReference().getBaseString(), variantContext.getAlleles().get(clinAllele).getBaseString());
+                    genomeVariant.convertToMinimalRepresentation();
+
+                    ArrayList<Node> nodes = Neo4j.getNodes(graphDb, VariantDatabase.getVariantLabel(), "variantId", genomeVariant.toString());
+
+                    if (nodes.size() == 1){
+
+                        logger.info("Adding clinvar to " + genomeVariant.toString());
+
+                        String[] clinSigsString = clinSig.split("\\|");
+                        int[] clinSigsInt = new int[clinSigsString.length];
+
+                        for (int i = 0; i < clinSigsString.length; ++i){
+                            clinSigsInt[i] = Integer.parseInt(clinSigsString[i]);
+                        }
+
+                        try (Transaction tx = graphDb.beginTx()) {
+                            nodes.get(0).setProperty("clinvar", clinSigsInt);
+                            tx.success();
+                        }
+
+                    }
+
+                } else if (variantContext.getAttribute("CLNALLE") instanceof ArrayList) {
+                    if (variantContext.getAttribute("CLNSIG") == null) continue; //not always present
+
+                    ArrayList<String> clinSigs = (ArrayList<String>) variantContext.getAttribute("CLNSIG");
+                    ArrayList<String> clinAlleles = (ArrayList<String>) variantContext.getAttribute("CLNALLE");
+
+                    for (int n = 0; n < clinAlleles.size(); ++n){
+
+                        int clinAllele = Integer.parseInt(clinAlleles.get(n));
+                        if (clinAllele == -1) continue; //A value of -1 indicates that no allele was found to match a corresponding HGVS allele name
+
+                        GenomeVariant genomeVariant = new GenomeVariant(variantContext.getContig(), variantContext.getStart(), variantContext.getReference().getBaseString(), variantContext.getAlleles().get(clinAllele).getBaseString());
+                        genomeVariant.convertToMinimalRepresentation();
+
+                        ArrayList<Node> nodes = Neo4j.getNodes(graphDb, VariantDatabase.getVariantLabel(), "variantId", genomeVariant.toString());
+
+                        if (nodes.size() == 1){
+
+                            logger.info("Adding clinvar to " + genomeVariant.toString());
+
+                            String[] clinSigsString = clinSigs.get(n).split("\\|");
+                            int[] clinSigsInt = new int[clinSigsString.length];
+
+                            for (int i = 0; i < clinSigsString.length; ++i){
+                                clinSigsInt[i] = Integer.parseInt(clinSigsString[i]);
+                            }
+
+                            try (Transaction tx = graphDb.beginTx()) {
+                                nodes.get(0).setProperty("clinvar", clinSigsInt);
+                                tx.success();
+                            }
+
+                        }
+
+                    }
+
+                }
 
             }
 
+            return Response
+                    .status(Response.Status.OK)
+                    .build();
+
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
         }
 
-        jg.writeEndArray();
+    }
 
-        //write filters
-        jg.writeFieldName("filters");
-        jg.writeStartArray();
+    @GET
+    @Path("/clinvar/remove")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response clinvarRemove() {
+        try {
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Heterozygous");
-        jg.writeNumberField("y", notHomozygousVariants);
-        jg.writeEndObject();
+            try (Transaction tx = graphDb.beginTx()) {
+                try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getVariantLabel())) {
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "ExAC >5% Frequency");
-        jg.writeNumberField("y", notExACRareVariants);
-        jg.writeEndObject();
+                    while (iter.hasNext()) {
+                        Node variantNode = iter.next();
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "1KG >5% Frequency");
-        jg.writeNumberField("y", not1KGRareVariants);
-        jg.writeEndObject();
+                        if (variantNode.hasProperty("clinvar")){
+                            variantNode.removeProperty("clinvar");
+                        }
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Pass");
-        jg.writeNumberField("y", passVariants);
-        jg.writeEndObject();
+                    }
+                }
 
-        jg.writeEndArray();
+                tx.success();
+            }
 
-        jg.writeNumberField("total", total);
+            return Response
+                    .status(Response.Status.OK)
+                    .build();
 
-        jg.writeEndObject();
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity((e.getMessage()).getBytes(Charset.forName("UTF-8")))
+                    .build();
+        }
+
+    }
+
+    /*workflows*/
+    @Workflow(name = "Rare Variant Workflow v1", description = "A workflow to prioritise rare calls")
+    public void runRareVariantWorkflowv1(JsonGenerator jg, List<FilterStage> gates, Node runInfoNode, WorkflowPage page) throws IOException {
+        runStratifiedWorkflow(jg, gates, runInfoNode, page,
+                new FilterStage[]{getClassificationStage(), getExACRareStage(0.01), get1KGRareStage(0.01)},
+                new String[]{"Class 1", "ExAC >1% Frequency", "1KG >1% Frequency", "Pass"}
+        );
+    }
+
+    @Workflow(name = "Severe Rare Variant Workflow v1", description = "A workflow to prioritise rare calls with a severe consequence")
+    public void runSevereRareVariantWorkflowv1(JsonGenerator jg, List<FilterStage> gates, Node runInfoNode, WorkflowPage page) throws IOException {
+        runStratifiedWorkflow(jg, gates, runInfoNode, page,
+                new FilterStage[]{getClassificationStage(), getSevereStage(), getExACRareStage(0.01), get1KGRareStage(0.01)},
+                new String[]{"Class 1", "No Severe Consequence", "ExAC >1% Frequency", "1KG >1% Frequency", "Pass"}
+        );
+    }
+
+    @Deprecated
+    @Workflow(name = "Autosomal Dominant Workflow v1", description = "A workflow to prioritise rare autosomal heterozygous calls")
+    public void runAutosomalDominantWorkflowv1(JsonGenerator jg, List<FilterStage> gates, Node runInfoNode, WorkflowPage page) throws IOException {
+        runStratifiedWorkflow(jg, gates, runInfoNode, page,
+                new FilterStage[]{getHeterozygousStage(), getAutosomeStage(), getExACRareStage(0.01), get1KGRareStage(0.01)},
+                new String[]{"Homozygous", "Non Autosomal", "ExAC >1% Frequency", "1KG >1% Frequency", "Pass"}
+        );
+    }
 
+    @Deprecated
+    @Workflow(name = "Rare Homozygous Workflow v1", description = "A workflow to prioritise rare homozygous calls")
+    public void runRareHomozygousWorkflowv1(JsonGenerator jg, List<FilterStage> gates, Node runInfoNode, WorkflowPage page) throws IOException {
+        runStratifiedWorkflow(jg, gates, runInfoNode, page,
+                new FilterStage[]{getHomozygousStage(), getExACRareStage(0.05), get1KGRareStage(0.05)},
+                new String[]{"Heterozygous", "ExAC >5% Frequency", "1KG >5% Frequency", "Pass"}
+        );
     }
 
     @Deprecated
-    @Workflow(name = "Autosomal Recessive Workflow v1", description = "A workflow to prioritise rare autosomal compound calls")
-    public void runAutosomalRecessiveWorkflowv1(JsonGenerator jg, HashSet<Long> excludeRunInfoNodes, HashSet<Long> includePanelNodes, Node runInfoNode) throws IOException {
+    @Workflow(name = "Autosomal Recessive Workflow v1", description = "A workflow to prioritise rare autosomal compound calls", paged = false)
+    public void runAutosomalRecessiveWorkflowv1(JsonGenerator jg, List<FilterStage> gates, Node runInfoNode, WorkflowPage page) throws IOException {
 
-        boolean includeCallsFromPanel = false, excludeCallsFromSample = false, hasAssociatedSymbol;
-        int notAutosomalVariants = 0, not1KGRareVariants = 0, notExACRareVariants = 0, noAnnotation = 0, singleGeneChange = 0, passVariants = 0, total = 0;
+        //calls are paired by gene across the whole run so this workflow is not paged; variantFilter rejects a page
+        boolean hasAssociatedSymbol;
+        int total = 0;
+        int[] counts = new int[6];
         HashMap<String, HashSet<Node>> callsByGene = new HashMap<>();
         HashSet<Long> uniqueIds = new HashSet<>();
-
-        if (includePanelNodes.size() > 0) includeCallsFromPanel = true;
-        if (excludeRunInfoNodes.size() > 0) excludeCallsFromSample = true;
+        FilterStage[] strata = new FilterStage[]{getAutosomeStage(), getExACRareStage(0.05), get1KGRareStage(0.05)};
+        FilterStage.Evaluator evaluator = new FilterStage.Evaluator(gates, strata);
 
         jg.writeStartObject();
 
         jg.writeFieldName("variants");
         jg.writeStartArray();
 
-        try (Transaction tx = graphDb.beginTx()) {
+        try (ReadContext ctx = new ReadContext(graphDb)) {
 
-            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING)) {
+            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
                 Node variantNode = inheritanceRel.getEndNode();
 
-                //check if variant belongs to supplied panel
-                if (includeCallsFromPanel && !variantBelongsToVirtualPanel(variantNode, includePanelNodes)){
-                    continue;
-                }
-
-                //check if variant is not present in exclusion samples
-                if (excludeCallsFromSample && variantPresentInExclusionSamples(variantNode, excludeRunInfoNodes)){
-                    continue;
-                }
+                if (!evaluator.passes(ctx, variantNode, inheritanceRel)) continue;
 
                 //stratify variants
-                if (!variantNode.hasLabel(VariantDatabase.getAutosomeLabel())) {
-                    jg.writeStartObject();
-
-                    writeVariantInformation(variantNode, jg);
-                    jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
-                    jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
-                    jg.writeNumberField("filter", 0);
+                int filter = evaluator.getStratum(ctx, variantNode, inheritanceRel);
 
-                    notAutosomalVariants++;
-                    total++;
-
-                    jg.writeEndObject();
-                } else if (!isExACRareVariant(variantNode, 0.05)) {
+                if (filter < strata.length) {
                     jg.writeStartObject();
 
-                    writeVariantInformation(variantNode, jg);
+                    writeVariantInformation(ctx, variantNode, jg);
                     jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
                     jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
-                    jg.writeNumberField("filter", 1);
+                    jg.writeNumberField("filter", filter);
 
-                    notExACRareVariants++;
-                    total++;
-
-                    jg.writeEndObject();
-                } else if (!is1KGRareVariant(variantNode, 0.05)) {
-                    jg.writeStartObject();
-
-                    writeVariantInformation(variantNode, jg);
-                    jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
-                    jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
-                    jg.writeNumberField("filter", 2);
-
-                    not1KGRareVariants++;
+                    counts[filter]++;
                     total++;
 
                     jg.writeEndObject();
@@ -2388,12 +3079,12 @@ public class VariantDatabasePlugin
                     if (!hasAssociatedSymbol){
                         jg.writeStartObject();
 
-                        writeVariantInformation(variantNode, jg);
+                        writeVariantInformation(ctx, variantNode, jg);
                         jg.writeStringField("Inheritance", getVariantInheritance(inheritanceRel.getType().name()));
                         jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
                         jg.writeNumberField("filter", 3);
 
-                        noAnnotation++;
+                        counts[3]++;
                         total++;
 
                         jg.writeEndObject();
@@ -2402,403 +3093,1008 @@ public class VariantDatabasePlugin
 
             } //done looping over variants
 
+            evaluator.merge();
+
             //collect remaining calls in genes with multiple calls
             for (Map.Entry<String, HashSet<Node>> iter : callsByGene.entrySet()){
+                int filter = iter.getValue().size() == 1 ? 4 : 5;
 
-                if (iter.getValue().size() == 1){
-                    for (Node variantNode : iter.getValue()){
+                for (Node variantNode : iter.getValue()){
 
-                        if (uniqueIds.contains(variantNode.getId())) continue;
-                        uniqueIds.add(variantNode.getId());
+                    if (uniqueIds.contains(variantNode.getId())) continue;
+                    uniqueIds.add(variantNode.getId());
 
-                        jg.writeStartObject();
+                    jg.writeStartObject();
 
-                        writeVariantInformation(variantNode, jg);
+                    writeVariantInformation(ctx, variantNode, jg);
 
-                        //find inheritance
-                        for (Relationship inheritanceRel : variantNode.getRelationships(Direction.INCOMING)){
-                            if (inheritanceRel.getStartNode().equals(runInfoNode)){
-                                jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
-                                jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
-                            }
-                        }
+                    //find inheritance
+                    Relationship inheritanceRel = getInheritanceRelationship(runInfoNode, variantNode);
+                    if (inheritanceRel != null){
+                        jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
+                        jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
+                    }
 
-                        jg.writeNumberField("filter", 4);
+                    jg.writeNumberField("filter", filter);
 
-                        singleGeneChange++;
-                        total++;
+                    counts[filter]++;
+                    total++;
 
-                        jg.writeEndObject();
+                    jg.writeEndObject();
+
+                }
+
+            }
+
+        }
+
+        jg.writeEndArray();
+
+        writeFilters(new String[]{"Non Autosomal", "ExAC >5% Frequency", "1KG >5% Frequency", "No Annotation", "Single Gene Change", "Pass"}, counts, jg);
+        jg.writeNumberField("total", total);
+
+        jg.writeEndObject();
+
+    }
+
+    @Deprecated
+    @Workflow(name = "X Linked Workflow v1", description = "A workflow to prioritise X-linked calls")
+    public void runXLinkedWorkflowv1(JsonGenerator jg, List<FilterStage> gates, Node runInfoNode, WorkflowPage page) throws IOException {
+        runStratifiedWorkflow(jg, gates, runInfoNode, page,
+                new FilterStage[]{getXChromosomeStage(), getExACRareStage(0.05), get1KGRareStage(0.05)},
+                new String[]{"NotXLinked", "ExAC >5% Frequency", "1KG >5% Frequency", "Pass"}
+        );
+    }
+
+    /**
+     * Writes each call passing the gates with the index of the first stratum it fails, or the last key if it fails none
+     */
+    private void runStratifiedWorkflow(JsonGenerator jg, final List<FilterStage> gates, Node runInfoNode, WorkflowPage page, final FilterStage[] strata, String[] keys) throws IOException {
+
+        int total = 0;
+        int[] counts = new int[keys.length];
+        String cursor = null;
+
+        jg.writeStartObject();
+
+        jg.writeFieldName("variants");
+        jg.writeStartArray();
+
+        try (ReadContext ctx = new ReadContext(graphDb)) {
+
+            int calls = runInfoNode.getDegree(VariantDatabase.getHasHetVariantRelationship(), Direction.OUTGOING) +
+                    runInfoNode.getDegree(VariantDatabase.getHasHomVariantRelationship(), Direction.OUTGOING);
+
+            if (page != null) {
+
+                cursor = runPagedStratifiedWorkflow(ctx, jg, gates, runInfoNode, page, strata, counts);
+
+            } else if (workflowPool == null || calls <= workflowChunkSize) {
+                FilterStage.Evaluator evaluator = new FilterStage.Evaluator(gates, strata);
+
+                for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+                    writeStratifiedVariant(ctx, evaluator, inheritanceRel, counts, jg);
+                }
+
+                evaluator.merge();
+
+            } else {
+
+                //split the run into chunks of relationship ids, kept in iteration order
+                long[] inheritanceRelIds = new long[calls];
+                int n = 0;
+
+                for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+                    if (n == inheritanceRelIds.length) inheritanceRelIds = Arrays.copyOf(inheritanceRelIds, n * 2);
+                    inheritanceRelIds[n++] = inheritanceRel.getId();
+                }
+
+                //merge in chunk order so output matches a serial run
+                for (Future<WorkflowChunk> future : submitStratifiedWorkflowChunks(inheritanceRelIds, n, gates, strata, keys.length, true)) {
+                    WorkflowChunk chunk = getWorkflowChunk(future);
+
+                    for (String row : chunk.rows) jg.writeRawValue(row);
+                    for (int i = 0; i < counts.length; ++i) counts[i] += chunk.counts[i];
+                }
+
+            }
+
+        }
+
+        jg.writeEndArray();
+
+        //counts cover the whole run: a first page carries them once a count request has stored them, later pages only carry calls
+        if (page == null || page.isCount() || (page.isFirst() && getWorkflowSummary(page, counts))) {
+            for (int count : counts) total += count;
+
+            writeFilters(keys, counts, jg);
+            jg.writeNumberField("total", total);
+        }
+
+        if (cursor != null) jg.writeStringField("cursor", cursor);
+
+        jg.writeEndObject();
+
+    }
+
+    /*helper functions*/
+    private void warmCaches(){
+        int runs = 0;
+
+        try (Transaction tx = graphDb.beginTx()) {
+            try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getRunInfoLabel())) {
+
+                while (iter.hasNext()) {
+                    getRunQcStatus(iter.next());
+                    runs++;
+                }
+
+            }
+        }
+
+        logger.info("Cached QC status for " + runs + " runs");
+        logger.info("Cached OMIM disorders for " + loadSymbolDisorders().size() + " symbols");
+        logger.info("Cached active preferences for " + loadFeaturePreferences() + " features");
+
+        if (transactionEventHandlersRegistered.compareAndSet(false, true)){
+            graphDb.registerTransactionEventHandler(variantRunIndex.getTransactionEventHandler());
+            graphDb.registerTransactionEventHandler(getPopulationFrequencyTransactionEventHandler());
+            graphDb.registerTransactionEventHandler(populationFrequencyStore.getTransactionEventHandler());
+            graphDb.registerTransactionEventHandler(getSevereConsequenceTransactionEventHandler());
+            graphDb.registerTransactionEventHandler(getAnnotationInformationTransactionEventHandler());
+
+            workflowResultCache = new WorkflowResultCache(
+                    new File(System.getProperty("variantdatabase.workflow.cache.dir", new File(System.getProperty("java.io.tmpdir"), "variantdatabase-workflow-cache").getPath())),
+                    getDatabaseId(),
+                    Long.getLong("variantdatabase.workflow.cache.bytes", 256L * 1024 * 1024),
+                    Long.getLong("variantdatabase.workflow.cache.disk.bytes", 4L * 1024 * 1024 * 1024),
+                    logger
+            );
+            graphDb.registerTransactionEventHandler(getWorkflowResultTransactionEventHandler());
+        }
 
+        //labels written under a different severity table cannot be trusted
+        try (Transaction tx = graphDb.beginTx()) {
+            Node pluginMetadataNode = getPluginMetadataNode();
+            severeConsequenceCurrent = pluginMetadataNode != null && ConsequenceCatalogue.getSeverityFingerprint().equals(pluginMetadataNode.getProperty("severityFingerprint", null));
+            pendingAuthLabelCurrent = pluginMetadataNode != null && (boolean) pluginMetadataNode.getProperty("pendingAuthLabelled", false);
+            maxPopulationFrequencyCurrent = pluginMetadataNode != null && (boolean) pluginMetadataNode.getProperty("maxPopulationFrequencyBackfilled", false);
+        }
+
+        if (!severeConsequenceCurrent){
+            logger.warn("Severe consequence flags are missing or stale; run /admin/backfill/severe");
+        }
+
+        if (!pendingAuthLabelCurrent){
+            logger.warn("Pending authorisation labels have not been backfilled; reading event chains until /admin/backfill/userevents is run");
+        }
+
+        createPopulationFrequencyIndexes();
+
+        if (!maxPopulationFrequencyCurrent){
+            logger.warn("Max population frequencies have not been backfilled; rare variants are filtered per call until /admin/backfill/populationfrequency is run");
+        }
+
+        if (!populationFrequencyStore.isReady()){
+            populationFrequencyStore.buildInBackground(graphDb, logger);
+        }
+
+        if (!variantRunIndex.isReady()){
+            final GraphDatabaseService graphDb = this.graphDb;
+            final Log logger = this.logger;
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (Transaction tx = graphDb.beginTx()) {
+                        variantRunIndex.build(graphDb, logger);
+                    } catch (Exception e) {
+                        logger.error("Could not build variant run index: " + e.getMessage());
                     }
-                } else {
-                    for (Node variantNode : iter.getValue()){
+                }
+            }, "variant-run-index");
 
-                        if (uniqueIds.contains(variantNode.getId())) continue;
-                        uniqueIds.add(variantNode.getId());
+            thread.setDaemon(true);
+            thread.start();
+        }
 
-                        jg.writeStartObject();
+    }
+    private RunBitmap getQcPassRunBitmap(){
+        RunBitmap runBitmap = qcPassRunBitmap;
 
-                        writeVariantInformation(variantNode, jg);
+        if (runBitmap == null){
+            long generation = runQcStatusCacheGeneration.get();
+            ArrayList<Integer> ordinals = new ArrayList<>();
 
-                        //find inheritance
-                        for (Relationship inheritanceRel : variantNode.getRelationships(Direction.INCOMING)){
-                            if (inheritanceRel.getStartNode().equals(runInfoNode)){
-                                jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
-                                jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
-                            }
+            try (Transaction tx = graphDb.beginTx()) {
+                try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getRunInfoLabel())) {
+
+                    while (iter.hasNext()) {
+                        Node runInfoNode = iter.next();
+
+                        if (getRunQcStatus(runInfoNode).qcStatus == QcStatus.PASS){
+                            ordinals.add(variantRunIndex.getRunOrdinal(runInfoNode.getId()));
                         }
 
-                        jg.writeNumberField("filter", 5);
+                    }
 
-                        passVariants++;
-                        total++;
+                }
+            }
+
+            int[] values = new int[ordinals.size()];
+            for (int i = 0; i < values.length; ++i) values[i] = ordinals.get(i);
+            runBitmap = RunBitmap.of(values);
+
+            //withdraw the bitmap if an invalidation raced with publishing it
+            if (generation == runQcStatusCacheGeneration.get()){
+                qcPassRunBitmap = runBitmap;
+                if (generation != runQcStatusCacheGeneration.get()) qcPassRunBitmap = null;
+            }
+        }
+
+        return runBitmap;
+    }
+    private RunQcStatus getRunQcStatus(Node runInfoNode){
+        RunQcStatus runQcStatus = runQcStatusCache.get(runInfoNode.getId());
+
+        if (runQcStatus == null){
+            long generation = runQcStatusCacheGeneration.get();
+            runQcStatus = readRunQcStatus(runInfoNode);
+
+            //do not cache a result that raced with an invalidation; one landing after the first check is caught by the second
+            if (generation == runQcStatusCacheGeneration.get()){
+                runQcStatusCache.putIfAbsent(runInfoNode.getId(), runQcStatus);
+                if (generation != runQcStatusCacheGeneration.get()) runQcStatusCache.remove(runInfoNode.getId(), runQcStatus);
+            }
+        }
+
+        return runQcStatus;
+    }
+    private RunQcStatus getRunQcStatus(ReadContext ctx, Node runInfoNode){
+        RunQcStatus runQcStatus = ctx.runQcStatus.get(runInfoNode.getId());
+
+        //one request sees one QC state per run
+        if (runQcStatus == null){
+            runQcStatus = getRunQcStatus(runInfoNode);
+            ctx.runQcStatus.put(runInfoNode.getId(), runQcStatus);
+        }
+
+        return runQcStatus;
+    }
+    private RunQcStatus readRunQcStatus(Node runInfoNode){
+        QcStatus qcStatus = QcStatus.PENDING;
+        UserEventStatus lastEventStatus = null;
+        boolean hasQcEvents = false;
+
+        Node lastEventNode = getLastUserEventNode(runInfoNode);
+        Node lastActiveEventNode = getLastActiveUserEventNode(runInfoNode);
+
+        if (lastActiveEventNode != null){
+            qcStatus = (boolean) lastActiveEventNode.getProperty("passOrFail") ? QcStatus.PASS : QcStatus.FAIL;
+        }
+
+        if (lastEventNode.getId() != runInfoNode.getId()){
+            hasQcEvents = true;
+            lastEventStatus = EventChain.getUserEventStatus(lastEventNode);
+        }
+
+        return new RunQcStatus(qcStatus, hasQcEvents, lastEventStatus);
+    }
+    private void invalidateRunQcStatus(long runInfoNodeId){
+        runQcStatusCacheGeneration.incrementAndGet();
+        runQcStatusCache.remove(runInfoNodeId);
+        qcPassRunBitmap = null;
+    }
+    private Boolean variantHasSevereConsequence(Node variantNode){
+        Object severeConsequence = variantNode.getProperty("severeConsequence", null);
+
+        //flags are only written while the plugin is loaded, so a variant imported offline may not have one
+        if (severeConsequenceCurrent && severeConsequence != null){
+            return (boolean) severeConsequence;
+        }
+        return computeVariantHasSevereConsequence(variantNode);
+    }
+    private static boolean computeVariantHasSevereConsequence(Node variantNode){
+        for (Relationship consequenceRel : variantNode.getRelationships(Direction.OUTGOING)){
+            if (ConsequenceCatalogue.getConsequence(consequenceRel.getType()).isSevere() == Boolean.TRUE && consequenceRel.getEndNode().hasLabel(VariantDatabase.getAnnotationLabel())){
+                return true;
+            }
+        }
+        return false;
+    }
+    private static void setSevereConsequence(Node variantNode){
+        variantNode.setProperty("severeConsequence", computeVariantHasSevereConsequence(variantNode));
+    }
+    private long[] getNodeIds(Label label){
+        long[] nodeIds = new long[1024];
+        int n = 0;
+
+        try (Transaction tx = graphDb.beginTx()) {
+            try (ResourceIterator<Node> iter = graphDb.findNodes(label)) {
+                while (iter.hasNext()) {
+                    if (n == nodeIds.length) nodeIds = Arrays.copyOf(nodeIds, n * 2);
+                    nodeIds[n++] = iter.next().getId();
+                }
+            }
+        }
+
+        return Arrays.copyOf(nodeIds, n);
+    }
+    /**
+     * @return an id stored with the graph on first use, so it survives restarts but is not shared by another database
+     */
+    private String getDatabaseId(){
+        try (Transaction tx = graphDb.beginTx()) {
+            Node pluginMetadataNode = getPluginMetadataNode();
+            if (pluginMetadataNode == null) pluginMetadataNode = graphDb.createNode(pluginMetadataLabel);
+
+            tx.acquireWriteLock(pluginMetadataNode);
+            if (!pluginMetadataNode.hasProperty("databaseId")) pluginMetadataNode.setProperty("databaseId", UUID.randomUUID().toString());
+
+            String databaseId = pluginMetadataNode.getProperty("databaseId").toString();
+            tx.success();
+
+            return databaseId;
+        }
+    }
+    private Node getPluginMetadataNode(){
+        try (ResourceIterator<Node> iter = graphDb.findNodes(pluginMetadataLabel)) {
+            return iter.hasNext() ? iter.next() : null;
+        }
+    }
+    private static TransactionEventHandler<Void> getSevereConsequenceTransactionEventHandler(){
+        return new TransactionEventHandler.Adapter<Void>() {
+
+            @Override
+            public Void beforeCommit(TransactionData data) throws Exception {
+                HashSet<Node> variantNodes = new HashSet<>();
+
+                //flag every variant, severe or not, so a missing flag only means the variant was imported offline
+                for (Node node : data.createdNodes()) {
+                    if (node.hasLabel(VariantDatabase.getVariantLabel())) variantNodes.add(node);
+                }
+                for (LabelEntry labelEntry : data.assignedLabels()) {
+                    if (labelEntry.label().equals(VariantDatabase.getVariantLabel())) variantNodes.add(labelEntry.node());
+                }
+
+                //reflag variants as annotations are loaded or removed
+                for (Relationship relationship : data.createdRelationships()) {
+                    if (ConsequenceCatalogue.getConsequence(relationship.getType()).isSevere() == Boolean.TRUE && relationship.getStartNode().hasLabel(VariantDatabase.getVariantLabel())) {
+                        variantNodes.add(relationship.getStartNode());
+                    }
+                }
+                for (Relationship relationship : data.deletedRelationships()) {
+                    if (ConsequenceCatalogue.getConsequence(relationship.getType()).isSevere() == Boolean.TRUE) {
+                        variantNodes.add(relationship.getStartNode());
+                    }
+                }
+
+                //only consequences ending on an annotation count, so relabelling the end node can change the outcome
+                for (LabelEntry labelEntry : data.assignedLabels()) {
+                    if (labelEntry.label().equals(VariantDatabase.getAnnotationLabel())) addSevereConsequenceVariantNodes(labelEntry.node(), variantNodes);
+                }
+                for (LabelEntry labelEntry : data.removedLabels()) {
+                    if (labelEntry.label().equals(VariantDatabase.getAnnotationLabel()) && !data.isDeleted(labelEntry.node())) addSevereConsequenceVariantNodes(labelEntry.node(), variantNodes);
+                }
+
+                for (Node variantNode : variantNodes) {
+                    if (!data.isDeleted(variantNode) && variantNode.hasLabel(VariantDatabase.getVariantLabel())) setSevereConsequence(variantNode);
+                }
+
+                return null;
+            }
+
+        };
+    }
+    private static void addSevereConsequenceVariantNodes(Node annotationNode, HashSet<Node> variantNodes){
+        for (Relationship relationship : annotationNode.getRelationships(Direction.INCOMING)) {
+            if (ConsequenceCatalogue.getConsequence(relationship.getType()).isSevere() == Boolean.TRUE) variantNodes.add(relationship.getStartNode());
+        }
+    }
+    private int getGlobalVariantOccurrenceQcPass(ReadContext ctx, Node variantNode){
+
+        if (variantNode.hasProperty("hetOccurrenceQcPass") && variantNode.hasProperty("homOccurrenceQcPass")){
+            return (int) variantNode.getProperty("hetOccurrenceQcPass") + ((int) variantNode.getProperty("homOccurrenceQcPass") * 2);
+        }
+
+        //counters have not been built
+        if (variantRunIndex.isReady()){
+            RunBitmap qcPassRuns = getQcPassRunBitmap();
+            return variantRunIndex.getHetRuns(variantNode.getId()).andCardinality(qcPassRuns) + (variantRunIndex.getHomRuns(variantNode.getId()).andCardinality(qcPassRuns) * 2);
+        }
+
+        int[] occurrence = countVariantOccurrenceQcPass(ctx, variantNode);
+        return occurrence[0] + (occurrence[1] * 2);
+    }
+    /**
+     * @param ctx null to read each run's status afresh, as writers holding the variant's lock must
+     */
+    private int[] countVariantOccurrenceQcPass(ReadContext ctx, Node variantNode){
+        int hetOccurrence = 0, homOccurrence = 0;
+
+        for (Relationship relationship : variantNode.getRelationships(Direction.INCOMING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+            Node runInfoNode = relationship.getStartNode();
+
+            if (runInfoNode.hasLabel(VariantDatabase.getRunInfoLabel())) {
+
+                //check if run has passed QC
+                if ((ctx == null ? getRunQcStatus(runInfoNode) : getRunQcStatus(ctx, runInfoNode)).qcStatus != QcStatus.PASS){
+                    continue;
+                }
+
+                if (relationship.isType(VariantDatabase.getHasHetVariantRelationship())) {
+                    hetOccurrence++;
+                } else if (relationship.isType(VariantDatabase.getHasHomVariantRelationship())) {
+                    homOccurrence++;
+                }
+
+            }
+
+        }
+
+        return new int[]{hetOccurrence, homOccurrence};
+    }
+    private void updateVariantOccurrenceQcPass(Node runInfoNode, int delta){
 
-                        jg.writeEndObject();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+                Node variantNode = inheritanceRel.getEndNode();
+                String key = inheritanceRel.isType(VariantDatabase.getHasHetVariantRelationship()) ? "hetOccurrenceQcPass" : "homOccurrenceQcPass";
 
-                    }
-                }
+                //counters are only maintained once built
+                if (!variantNode.hasProperty(key)) continue;
 
+                tx.acquireWriteLock(variantNode);
+                variantNode.setProperty(key, (int) variantNode.getProperty(key) + delta);
             }
 
+            tx.success();
         }
 
-        jg.writeEndArray();
-
-        //write filters
-        jg.writeFieldName("filters");
-        jg.writeStartArray();
+    }
+    private boolean is1KGRareVariant(Node variantNode, double maxAlleleFrequency){
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Non Autosomal");
-        jg.writeNumberField("y", notAutosomalVariants);
-        jg.writeEndObject();
+        //filter variants
+        return getMaxKgAf(variantNode) <= maxAlleleFrequency;
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "ExAC >5% Frequency");
-        jg.writeNumberField("y", notExACRareVariants);
-        jg.writeEndObject();
+    }
+    private boolean isExACRareVariant(Node variantNode, double maxAlleleFrequency){
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "1KG >5% Frequency");
-        jg.writeNumberField("y", not1KGRareVariants);
-        jg.writeEndObject();
+        //filter variants
+        return getMaxExacAf(variantNode) <= maxAlleleFrequency;
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "No Annotation");
-        jg.writeNumberField("y", noAnnotation);
-        jg.writeEndObject();
+    }
+    private static float getMaxKgAf(Node variantNode){
+        int row = populationFrequencyStore.getRow(variantNode.getId());
+        if (row != -1) return populationFrequencyStore.getMaxKgAf(row);
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Single Gene Change");
-        jg.writeNumberField("y", singleGeneChange);
-        jg.writeEndObject();
+        Object maxKgAf = variantNode.getProperty("maxKgAf", null);
+        return maxKgAf != null ? (float) maxKgAf : computeMaxKgAf(variantNode);
+    }
+    private static float getMaxExacAf(Node variantNode){
+        int row = populationFrequencyStore.getRow(variantNode.getId());
+        if (row != -1) return populationFrequencyStore.getMaxExacAf(row);
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Pass");
-        jg.writeNumberField("y", passVariants);
-        jg.writeEndObject();
+        Object maxExacAf = variantNode.getProperty("maxExacAf", null);
+        return maxExacAf != null ? (float) maxExacAf : computeMaxExacAf(variantNode);
+    }
+    private static float computeMaxKgAf(Node variantNode){
+        float maxAf = 0f;
 
-        jg.writeEndArray();
+        for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()) {
+            Object af = variantNode.getProperty("kGPhase3" + population.toString() + "Af", null);
+            if (af != null && (float) af > maxAf) maxAf = (float) af;
+        }
 
-        jg.writeNumberField("total", total);
+        return maxAf;
+    }
+    private static float computeMaxExacAf(Node variantNode){
+        float maxAf = 0f;
 
-        jg.writeEndObject();
+        for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()) {
+            Object af = variantNode.getProperty("exac" + population.toString() + "Af", null);
+            if (af != null && (float) af > maxAf) maxAf = (float) af;
+        }
 
+        return maxAf;
     }
+    private static void setMaxPopulationFrequency(Node variantNode){
+        variantNode.setProperty("maxKgAf", computeMaxKgAf(variantNode));
+        variantNode.setProperty("maxExacAf", computeMaxExacAf(variantNode));
+    }
+    private void createPopulationFrequencyIndexes(){
+        HashSet<String> indexedKeys = new HashSet<>();
 
-    @Deprecated
-    @Workflow(name = "X Linked Workflow v1", description = "A workflow to prioritise X-linked calls")
-    public void runXLinkedWorkflowv1(JsonGenerator jg, HashSet<Long> excludeRunInfoNodes, HashSet<Long> includePanelNodes, Node runInfoNode) throws IOException {
+        //schema changes cannot share a transaction with data changes
+        try (Transaction tx = graphDb.beginTx()) {
+            for (IndexDefinition indexDefinition : graphDb.schema().getIndexes(VariantDatabase.getVariantLabel())) {
+                for (String key : indexDefinition.getPropertyKeys()) indexedKeys.add(key);
+            }
+
+            if (!indexedKeys.contains("maxKgAf")) graphDb.schema().indexFor(VariantDatabase.getVariantLabel()).on("maxKgAf").create();
+            if (!indexedKeys.contains("maxExacAf")) graphDb.schema().indexFor(VariantDatabase.getVariantLabel()).on("maxExacAf").create();
 
-        boolean includeCallsFromPanel = false, excludeCallsFromSample = false;
-        int notXChromosomeVariants = 0, notExACRareVariants = 0, not1KGRareVariants = 0, passVariants = 0, total = 0;
+            tx.success();
+        }
+    }
+    private boolean isPopulationFrequencyIndexOnline(){
+        int online = 0;
 
-        if (includePanelNodes.size() > 0) includeCallsFromPanel = true;
-        if (excludeRunInfoNodes.size() > 0) excludeCallsFromSample = true;
+        for (IndexDefinition indexDefinition : graphDb.schema().getIndexes(VariantDatabase.getVariantLabel())) {
+            for (String key : indexDefinition.getPropertyKeys()) {
+                if ((key.equals("maxKgAf") || key.equals("maxExacAf")) && graphDb.schema().getIndexState(indexDefinition) == Schema.IndexState.ONLINE) online++;
+            }
+        }
 
+        return online == 2;
+    }
+    private void writeRareVariant(Node variantNode, RelationshipType inheritanceRelType, JsonGenerator jg) throws IOException {
         jg.writeStartObject();
 
-        jg.writeFieldName("variants");
-        jg.writeStartArray();
+        jg.writeNumberField("variantNodeId", variantNode.getId());
+        if (variantNode.hasProperty("variantId")) jg.writeStringField("variantId", variantNode.getProperty("variantId").toString());
+        jg.writeStringField("inheritance", getVariantInheritance(inheritanceRelType.name()));
+        jg.writeNumberField("maxKgAf", getMaxKgAf(variantNode));
+        jg.writeNumberField("maxExacAf", getMaxExacAf(variantNode));
 
-        try (Transaction tx = graphDb.beginTx()) {
+        jg.writeEndObject();
+    }
+    private static TransactionEventHandler<Void> getPopulationFrequencyTransactionEventHandler(){
+        return new TransactionEventHandler.Adapter<Void>() {
 
-            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING)) {
-                Node variantNode = inheritanceRel.getEndNode();
+            @Override
+            public Void beforeCommit(TransactionData data) throws Exception {
+                HashSet<Node> variantNodes = new HashSet<>();
 
-                //check if variant belongs to supplied panel
-                if (includeCallsFromPanel && !variantBelongsToVirtualPanel(variantNode, includePanelNodes)){
-                    continue;
+                //every variant carries a max, including novel ones imported without frequencies, so the range index finds it
+                for (Node node : data.createdNodes()) {
+                    if (node.hasLabel(VariantDatabase.getVariantLabel())) variantNodes.add(node);
                 }
 
-                //check if variant is not present in exclusion samples
-                if (excludeCallsFromSample && variantPresentInExclusionSamples(variantNode, excludeRunInfoNodes)){
-                    continue;
+                //keep stored max in step with imported population frequencies
+                for (PropertyEntry<Node> propertyEntry : data.assignedNodeProperties()) {
+                    if (PopulationFrequencyStore.isPopulationFrequencyKey(propertyEntry.key())) variantNodes.add(propertyEntry.entity());
+                }
+                for (PropertyEntry<Node> propertyEntry : data.removedNodeProperties()) {
+                    if (PopulationFrequencyStore.isPopulationFrequencyKey(propertyEntry.key())) variantNodes.add(propertyEntry.entity());
                 }
 
-                jg.writeStartObject();
-
-                writeVariantInformation(variantNode, jg);
-                jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
-                jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
-
-                //stratify variants
-                if (!variantNode.hasLabel(VariantDatabase.getxChromLabel())) {
-                    jg.writeNumberField("filter", 0);
-                    notXChromosomeVariants++;
-                } else if (!isExACRareVariant(variantNode, 0.05)) {
-                    jg.writeNumberField("filter", 1);
-                    notExACRareVariants++;
-                } else if (!is1KGRareVariant(variantNode, 0.05)) {
-                    jg.writeNumberField("filter", 2);
-                    not1KGRareVariants++;
-                } else {
-                    jg.writeNumberField("filter", 3);
-                    passVariants++;
+                for (Node variantNode : variantNodes) {
+                    if (!data.isDeleted(variantNode)) setMaxPopulationFrequency(variantNode);
                 }
 
-                total++;
+                return null;
+            }
 
-                jg.writeEndObject();
+        };
+    }
+    private static float getKgAf(Node variantNode, int row, VariantDatabase.kGPhase3Population population){
+        if (row != -1) return populationFrequencyStore.getKgAf(row, population.ordinal());
 
-            }
+        Object af = variantNode.getProperty("kGPhase3" + population.toString() + "Af", null);
+        return af != null ? (float) af : Float.NaN;
+    }
+    private static float getExacAf(Node variantNode, int row, VariantDatabase.exacPopulation population){
+        if (row != -1) return populationFrequencyStore.getExacAf(row, population.ordinal());
 
+        Object af = variantNode.getProperty("exac" + population.toString() + "Af", null);
+        return af != null ? (float) af : Float.NaN;
+    }
+    private String getVariantInheritance(String inheritanceRelationshipTypeName){
+        if (inheritanceRelationshipTypeName.length() > 12) {
+            return inheritanceRelationshipTypeName.substring(4, inheritanceRelationshipTypeName.length() - 8);
+        } else {
+            return null;
         }
+    }
+    private double getVariantInternalFrequency(int panelOccurrence, int variantOccurrence){
+        return (double) Math.round((((double) variantOccurrence / (panelOccurrence * 2)) * 100) * 100d) / 100d;
+    }
+    private void runWorkflow(Method workflow, JsonGenerator jg, List<FilterStage> gates, Node runInfoNode, WorkflowPage page) throws IOException {
+        try {
+            workflow.invoke(this, jg, gates, runInfoNode, page);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+    private boolean writeStratifiedVariant(ReadContext ctx, FilterStage.Evaluator evaluator, Relationship inheritanceRel, int[] counts, JsonGenerator jg) throws IOException {
+        Node variantNode = inheritanceRel.getEndNode();
 
-        jg.writeEndArray();
-
-        //write filters
-        jg.writeFieldName("filters");
-        jg.writeStartArray();
+        if (!evaluator.passes(ctx, variantNode, inheritanceRel)) return false;
 
         jg.writeStartObject();
-        jg.writeStringField("key", "NotXLinked");
-        jg.writeNumberField("y", notXChromosomeVariants);
-        jg.writeEndObject();
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "ExAC >5% Frequency");
-        jg.writeNumberField("y", notExACRareVariants);
-        jg.writeEndObject();
+        writeVariantInformation(ctx, variantNode, jg);
+        jg.writeStringField("inheritance", getVariantInheritance(inheritanceRel.getType().name()));
+        jg.writeNumberField("quality", (short) inheritanceRel.getProperty("quality"));
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "1KG >5% Frequency");
-        jg.writeNumberField("y", not1KGRareVariants);
-        jg.writeEndObject();
+        //stratify variants
+        int filter = evaluator.getStratum(ctx, variantNode, inheritanceRel);
+        jg.writeNumberField("filter", filter);
+        counts[filter]++;
 
-        jg.writeStartObject();
-        jg.writeStringField("key", "Pass");
-        jg.writeNumberField("y", passVariants);
         jg.writeEndObject();
 
-        jg.writeEndArray();
-
-        jg.writeNumberField("total", total);
+        return true;
+    }
+    /**
+     * Writes one page of calls from the cursor on, or counts the whole run for a count request
+     *
+     * @return a cursor for the next page or null if the run has been read
+     */
+    private String runPagedStratifiedWorkflow(ReadContext ctx, JsonGenerator jg, List<FilterStage> gates, Node runInfoNode, WorkflowPage page, FilterStage[] strata, int[] counts) throws IOException {
+        long[] inheritanceRelIds = getInheritanceRelIds(runInfoNode, page.version);
+
+        //checked before streaming; only a write since then can move the call before the cursor
+        if (!page.isValid(inheritanceRelIds)) throw new IllegalStateException("Run changed while reading page");
+
+        if (page.isCount()) {
+            countStratifiedWorkflow(ctx, gates, inheritanceRelIds, page, strata, counts);
+            return null;
+        }
 
-        jg.writeEndObject();
+        FilterStage.Evaluator evaluator = new FilterStage.Evaluator(gates, strata);
+        int position = page.offset, rows = 0;
 
-    }
+        //seek straight to the cursor; calls before it are neither walked nor evaluated
+        while (position < inheritanceRelIds.length && rows < page.pageSize) {
+            if (writeStratifiedVariant(ctx, evaluator, graphDb.getRelationshipById(inheritanceRelIds[position]), counts, jg)) rows++;
+            position++;
+        }
 
-    /*helper functions*/
-    private Boolean variantHasSevereConsequence(Node variantNode){
-        try (Transaction tx = graphDb.beginTx()) {
-            for (Relationship consequenceRel : variantNode.getRelationships(Direction.OUTGOING)){
-                if (consequenceRel.getEndNode().hasLabel(VariantDatabase.getAnnotationLabel())){
-                    Boolean severity = isConsequenceSevere(getFunctionalConsequence(consequenceRel.getType().name()));
+        evaluator.merge();
 
-                    if (severity != null && severity){
-                        return true;
-                    }
+        return position < inheritanceRelIds.length ? page.getCursor(position, inheritanceRelIds[position - 1]) : null;
+    }
+    /**
+     * Counts every call in the run once per data version; later count requests and first pages read the stored summary
+     */
+    private void countStratifiedWorkflow(ReadContext ctx, List<FilterStage> gates, long[] inheritanceRelIds, WorkflowPage page, FilterStage[] strata, int[] counts) throws IOException {
+        WorkflowResultCache resultCache = workflowResultCache;
+        if (getWorkflowSummary(page, counts)) return;
+
+        if (workflowPool == null || inheritanceRelIds.length <= workflowChunkSize) {
+            FilterStage.Evaluator evaluator = new FilterStage.Evaluator(gates, strata);
+
+            for (long inheritanceRelId : inheritanceRelIds) {
+                Relationship inheritanceRel = graphDb.getRelationshipById(inheritanceRelId);
+                Node variantNode = inheritanceRel.getEndNode();
+                if (evaluator.passes(ctx, variantNode, inheritanceRel)) counts[evaluator.getStratum(ctx, variantNode, inheritanceRel)]++;
+            }
 
-                }
+            evaluator.merge();
+        } else {
+            for (Future<WorkflowChunk> future : submitStratifiedWorkflowChunks(inheritanceRelIds, inheritanceRelIds.length, gates, strata, counts.length, false)) {
+                WorkflowChunk chunk = getWorkflowChunk(future);
+                for (int i = 0; i < counts.length; ++i) counts[i] += chunk.counts[i];
             }
         }
-        return false;
+
+        if (resultCache != null) resultCache.putSummary(page.key, page.version, counts);
     }
-    private Boolean isConsequenceSevere(String consequence){
-        switch (consequence) {
-            case "3_PRIME_UTR_VARIANT":
-                return false;
-            case "5_PRIME_UTR_VARIANT":
-                return false;
-            case "DOWNSTREAM_GENE_VARIANT":
-                return false;
-            case "UPSTREAM_GENE_VARIANT":
-                return false;
-            case "INTRON_VARIANT":
-                return false;
-            case "SYNONYMOUS_VARIANT":
-                return false;
-            case "SPLICE_REGION_VARIANT":
-                return false;
-            case "MISSENSE_VARIANT":
-                return true;
-            case "STOP_LOST":
-                return true;
-            case "INFRAME_DELETION":
-                return true;
-            case "INFRAME_INSERTION":
-                return true;
-            case "FRAMESHIFT_VARIANT":
-                return true;
-            case "SPLICE_ACCEPTOR_VARIANT":
-                return true;
-            case "SPLICE_DONOR_VARIANT":
-                return true;
-            case "STOP_GAINED":
-                return true;
-            case "START_LOST":
-                return true;
-            case "CODING_SEQUENCE_VARIANT":
-                return true;
-            case "STOP_RETAINED_VARIANT":
-                return true;
-            case "PROTEIN_ALTERING_VARIANT":
-                return true;
-            case "INCOMPLETE_TERMINAL_CODON_VARIANT":
-                return true;
-            default:
-                return null;
-        }
+    /**
+     * @return true if counts were replaced by those stored for this request at its data version
+     */
+    private boolean getWorkflowSummary(WorkflowPage page, int[] counts){
+        WorkflowResultCache resultCache = workflowResultCache;
+        int[] summary = resultCache == null ? null : resultCache.getSummary(page.key, page.version);
+        if (summary == null) return false;
+
+        System.arraycopy(summary, 0, counts, 0, counts.length);
+        return true;
     }
-    private int getGlobalVariantOccurrenceQcPass(Node variantNode){
-        int occurrence = 0;
+    /**
+     * @return the ids of a run's calls in iteration order, read once per data version so pages seek to their cursor without walking the run
+     */
+    private long[] getInheritanceRelIds(Node runInfoNode, long version){
+        WorkflowResultCache resultCache = workflowResultCache;
+        long[] inheritanceRelIds = resultCache == null ? null : resultCache.getCalls(runInfoNode.getId(), version);
+        if (inheritanceRelIds != null) return inheritanceRelIds;
+
+        inheritanceRelIds = new long[runInfoNode.getDegree(VariantDatabase.getHasHetVariantRelationship(), Direction.OUTGOING) + runInfoNode.getDegree(VariantDatabase.getHasHomVariantRelationship(), Direction.OUTGOING)];
+        int n = 0;
+
+        for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+            if (n == inheritanceRelIds.length) inheritanceRelIds = Arrays.copyOf(inheritanceRelIds, n * 2 + 1);
+            inheritanceRelIds[n++] = inheritanceRel.getId();
+        }
 
-        try (Transaction tx = graphDb.beginTx()) {
-            for (Relationship relationship : variantNode.getRelationships(Direction.INCOMING)) {
-                Node runInfoNode = relationship.getStartNode();
+        inheritanceRelIds = Arrays.copyOf(inheritanceRelIds, n);
+        if (resultCache != null) resultCache.putCalls(runInfoNode.getId(), version, inheritanceRelIds);
 
-                if (runInfoNode.hasLabel(VariantDatabase.getRunInfoLabel())) {
+        return inheritanceRelIds;
+    }
+    /**
+     * Splits calls into chunks evaluated on the workflow pool, returned in call order
+     */
+    private ArrayList<Future<WorkflowChunk>> submitStratifiedWorkflowChunks(long[] inheritanceRelIds, int n, final List<FilterStage> gates, final FilterStage[] strata, final int filters, final boolean writeRows){
+        ArrayList<Future<WorkflowChunk>> chunks = new ArrayList<>();
 
-                    //check if run has passed QC
-                    Node qcNode = getLastActiveUserEventNode(runInfoNode);
-                    if (qcNode == null || !(boolean) qcNode.getProperty("passOrFail")){
-                        continue;
-                    }
+        for (int start = 0; start < n; start += workflowChunkSize) {
+            final long[] chunkRelIds = Arrays.copyOfRange(inheritanceRelIds, start, Math.min(start + workflowChunkSize, n));
 
-                    if (relationship.isType(VariantDatabase.getHasHetVariantRelationship()) && relationship.getStartNode().hasLabel(VariantDatabase.getRunInfoLabel())) {
-                        occurrence += 1;
-                    } else if (relationship.isType(VariantDatabase.getHasHomVariantRelationship()) && relationship.getStartNode().hasLabel(VariantDatabase.getRunInfoLabel())) {
-                        occurrence += 2;
-                    }
+            chunks.add(workflowPool.submit(new Callable<WorkflowChunk>() {
+                @Override
+                public WorkflowChunk call() throws IOException {
+                    return runStratifiedWorkflowChunk(chunkRelIds, gates, strata, filters, writeRows);
+                }
+            }));
+        }
+
+        return chunks;
+    }
+    /**
+     * Evaluates a chunk of calls in its own transaction on a pool thread, serialising each row separately for merging unless only counting
+     */
+    private WorkflowChunk runStratifiedWorkflowChunk(long[] inheritanceRelIds, List<FilterStage> gates, FilterStage[] strata, int filters, boolean writeRows) throws IOException {
+        WorkflowChunk chunk = new WorkflowChunk(filters);
+        StringWriter writer = new StringWriter();
+        JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(writer);
+        int start = 0;
+
+        //counted without contention and merged once the chunk is done
+        FilterStage.Evaluator evaluator = new FilterStage.Evaluator(gates, strata);
+
+        try (ReadContext ctx = new ReadContext(graphDb)) {
+            for (long inheritanceRelId : inheritanceRelIds) {
+                Relationship inheritanceRel = graphDb.getRelationshipById(inheritanceRelId);
+
+                if (!writeRows) {
+                    Node variantNode = inheritanceRel.getEndNode();
+                    if (evaluator.passes(ctx, variantNode, inheritanceRel)) chunk.counts[evaluator.getStratum(ctx, variantNode, inheritanceRel)]++;
+                } else if (writeStratifiedVariant(ctx, evaluator, inheritanceRel, chunk.counts, jg)) {
+                    jg.flush();
 
+                    StringBuffer buffer = writer.getBuffer();
+                    chunk.rows.add(buffer.substring(start).trim());
+                    start = buffer.length();
                 }
 
             }
         }
 
-        return occurrence;
-    }
-    private boolean is1KGRareVariant(Node variantNode, double maxAlleleFrequency){
+        jg.close();
+        evaluator.merge();
 
-        //filter variants
-        try (Transaction tx = graphDb.beginTx()) {
+        return chunk;
+    }
+    private static WorkflowChunk getWorkflowChunk(Future<WorkflowChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+    private static OutputStream getTeeOutputStream(final OutputStream first, final OutputStream second){
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                first.write(b);
+                second.write(b);
+            }
 
-            for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                first.write(b, off, len);
+                second.write(b, off, len);
+            }
 
-                if (variantNode.hasProperty("kGPhase3" + population.toString() + "Af")){
-                    if ((float) variantNode.getProperty("kGPhase3" + population.toString() + "Af") > maxAlleleFrequency){
-                        return false;
-                    }
-                }
+            @Override
+            public void flush() throws IOException {
+                first.flush();
+                second.flush();
+            }
 
+            @Override
+            public void close() throws IOException {
+                first.close();
+                second.close();
             }
+        };
+    }
+    private static void writeFilters(String[] keys, int[] counts, JsonGenerator jg) throws IOException {
+        jg.writeFieldName("filters");
+        jg.writeStartArray();
 
+        for (int i = 0; i < keys.length; ++i){
+            jg.writeStartObject();
+            jg.writeStringField("key", keys[i]);
+            jg.writeNumberField("y", counts[i]);
+            jg.writeEndObject();
         }
 
-        return true;
+        jg.writeEndArray();
     }
-    private boolean isExACRareVariant(Node variantNode, double maxAlleleFrequency){
+    private FilterStage getPanelStage(Long[] panelNodeIds){
+        final LongHashSet panelSymbolNodeIds = getPanelSymbolNodeIds(panelNodeIds);
+
+        //selectivity depends on the panels chosen
+        return new FilterStage("panel" + getSortedNodeIds(panelNodeIds)) {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return variantBelongsToVirtualPanel(variantNode, panelSymbolNodeIds) ? Verdict.CONTINUE : Verdict.REJECT;
+            }
+        };
+    }
+    private FilterStage getExclusionStage(Long[] excludeRunInfoNodeIds){
+        final LongHashSet excludeVariantNodeIds = getRunVariantNodeIds(excludeRunInfoNodeIds);
 
-        //filter variants
-        try (Transaction tx = graphDb.beginTx()) {
+        return new FilterStage("exclusion" + getSortedNodeIds(excludeRunInfoNodeIds)) {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return excludeVariantNodeIds.contains(variantNode.getId()) ? Verdict.REJECT : Verdict.CONTINUE;
+            }
+        };
+    }
+    private static FilterStage getHeterozygousStage(){
+        return new FilterStage("heterozygous") {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return inheritanceRel.isType(VariantDatabase.getHasHomVariantRelationship()) ? Verdict.REJECT : Verdict.CONTINUE;
+            }
+        };
+    }
+    private static FilterStage getHomozygousStage(){
+        return new FilterStage("homozygous") {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return inheritanceRel.isType(VariantDatabase.getHasHetVariantRelationship()) ? Verdict.REJECT : Verdict.CONTINUE;
+            }
+        };
+    }
+    private static FilterStage getAutosomeStage(){
+        return new FilterStage("autosome") {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return variantNode.hasLabel(VariantDatabase.getAutosomeLabel()) ? Verdict.CONTINUE : Verdict.REJECT;
+            }
+        };
+    }
+    private static FilterStage getXChromosomeStage(){
+        return new FilterStage("xChromosome") {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return variantNode.hasLabel(VariantDatabase.getxChromLabel()) ? Verdict.CONTINUE : Verdict.REJECT;
+            }
+        };
+    }
+    private FilterStage getExACRareStage(final double maxAlleleFrequency){
+        return new FilterStage("exacRare" + maxAlleleFrequency) {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return isExACRareVariant(variantNode, maxAlleleFrequency) ? Verdict.CONTINUE : Verdict.REJECT;
+            }
+        };
+    }
+    private FilterStage get1KGRareStage(final double maxAlleleFrequency){
+        return new FilterStage("kGPhase3Rare" + maxAlleleFrequency) {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return is1KGRareVariant(variantNode, maxAlleleFrequency) ? Verdict.CONTINUE : Verdict.REJECT;
+            }
+        };
+    }
+    /**
+     * Rejects class 1 calls and passes calls with any other active classification straight through
+     */
+    private FilterStage getClassificationStage(){
+        return new FilterStage("classification") {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                Node lastActiveEventNode = getLastActiveUserEventNode(variantNode);
+                if (lastActiveEventNode == null || !lastActiveEventNode.hasProperty("classification")) return Verdict.CONTINUE;
+                return (int) lastActiveEventNode.getProperty("classification") == 1 ? Verdict.REJECT : Verdict.PASS;
+            }
+        };
+    }
+    private FilterStage getSevereStage(){
+        return new FilterStage("severe") {
+            @Override
+            protected Verdict evaluate(ReadContext ctx, Node variantNode, Relationship inheritanceRel) {
+                return variantHasSevereConsequence(variantNode) == Boolean.TRUE ? Verdict.CONTINUE : Verdict.REJECT;
+            }
+        };
+    }
+    private static String getSortedNodeIds(Long[] nodeIds){
+        Long[] sorted = Arrays.copyOf(nodeIds, nodeIds.length);
+        Arrays.sort(sorted);
+        return Arrays.toString(sorted);
+    }
+    private boolean variantBelongsToVirtualPanel(Node variantNode, LongHashSet panelSymbolNodeIds){
 
-            for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()) {
+        //check variant belongs to virtual panel
+        if (variantNode.hasLabel(VariantDatabase.getVariantLabel())) {
 
-                if (variantNode.hasProperty("exac" + population.toString() + "Af")){
-                    if ((float) variantNode.getProperty("exac" + population.toString() + "Af") > maxAlleleFrequency){
-                        return false;
-                    }
+            for (Relationship inSymbolRel : variantNode.getRelationships(Direction.OUTGOING, VariantDatabase.getInSymbolRelationship())) {
+                if (panelSymbolNodeIds.contains(inSymbolRel.getEndNode().getId())) {
+                    return true;
                 }
-
             }
 
         }
 
-        return true;
+        return false;
     }
-    private String getVariantInheritance(String inheritanceRelationshipTypeName){
-        if (inheritanceRelationshipTypeName.length() > 12) {
-            return inheritanceRelationshipTypeName.substring(4, inheritanceRelationshipTypeName.length() - 8);
-        } else {
-            return null;
+    private LongHashSet getPanelSymbolNodeIds(Long[] panelNodeIds){
+        LongHashSet symbolNodeIds = new LongHashSet();
+
+        for (Long panelNodeId : panelNodeIds){
+            symbolNodeIds.addAll(getPanelSymbolNodeIds(panelNodeId));
         }
-    }
-    private double getVariantInternalFrequency(int panelOccurrence, int variantOccurrence){
-        return (double) Math.round((((double) variantOccurrence / (panelOccurrence * 2)) * 100) * 100d) / 100d;
-    }
-    private boolean variantBelongsToVirtualPanel(Node variantNode, HashSet<Long> panelNodeIds){
 
-        try (Transaction tx = graphDb.beginTx()) {
+        return symbolNodeIds;
+    }
+    private LongHashSet getPanelSymbolNodeIds(long panelNodeId){
+        LongHashSet symbolNodeIds = panelSymbolNodeIdsCache.get(panelNodeId);
+        if (symbolNodeIds != null) return symbolNodeIds;
 
-            //check variant belongs to virtual panel
-            if (variantNode.hasLabel(VariantDatabase.getVariantLabel())) {
+        symbolNodeIds = new LongHashSet();
 
-                for (Relationship inSymbolRel : variantNode.getRelationships(Direction.OUTGOING, VariantDatabase.getInSymbolRelationship())) {
-                    Node symbolNode = inSymbolRel.getEndNode();
+        Node virtualPanelNode = graphDb.getNodeById(panelNodeId);
 
-                    if (symbolNode.hasLabel(VariantDatabase.getSymbolLabel())) {
+        for (Relationship containsSymbol : virtualPanelNode.getRelationships(Direction.OUTGOING, VariantDatabase.getContainsSymbolRelationship())) {
+            Node symbolNode = containsSymbol.getEndNode();
+            if (symbolNode.hasLabel(VariantDatabase.getSymbolLabel())) symbolNodeIds.add(symbolNode.getId());
+        }
 
-                        for (Relationship containsSymbol : symbolNode.getRelationships(Direction.INCOMING, VariantDatabase.getContainsSymbolRelationship())) {
-                            Node virtualPanelNode = containsSymbol.getStartNode();
+        //sets are not modified once cached
+        LongHashSet existing = panelSymbolNodeIdsCache.putIfAbsent(panelNodeId, symbolNodeIds);
+        return existing == null ? symbolNodeIds : existing;
+    }
+    private Relationship getInheritanceRelationship(Node runInfoNode, Node variantNode){
+        RelationshipType het = VariantDatabase.getHasHetVariantRelationship(), hom = VariantDatabase.getHasHomVariantRelationship();
 
-                            //check if variant belongs to the virtual panel
-                            if (panelNodeIds.contains(virtualPanelNode.getId())) {
-                                return true;
-                            }
+        //scan from whichever side has fewer calls; common variants are carried by most runs
+        if (variantNode.getDegree(het, Direction.INCOMING) + variantNode.getDegree(hom, Direction.INCOMING) <= runInfoNode.getDegree(het, Direction.OUTGOING) + runInfoNode.getDegree(hom, Direction.OUTGOING)){
+            for (Relationship inheritanceRel : variantNode.getRelationships(Direction.INCOMING, het, hom)){
+                if (inheritanceRel.getStartNode().getId() == runInfoNode.getId()) return inheritanceRel;
+            }
+        } else {
+            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, het, hom)){
+                if (inheritanceRel.getEndNode().getId() == variantNode.getId()) return inheritanceRel;
+            }
+        }
 
-                        }
+        return null;
+    }
+    private LongHashSet getRunVariantNodeIds(Long[] runInfoNodeIds){
+        LongHashSet variantNodeIds = new LongHashSet();
 
-                    }
-                }
+        for (Long runInfoNodeId : runInfoNodeIds){
+            Node runInfoNode = graphDb.getNodeById(runInfoNodeId);
 
+            for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+                variantNodeIds.add(inheritanceRel.getEndNode().getId());
             }
 
         }
 
-        return false;
+        return variantNodeIds;
     }
-    private boolean variantPresentInExclusionSamples(Node variantNode, HashSet<Long> excludedRunInfoNodeIds){
+    private Node getSubjectNodeFromEventNode(Node eventNode){
 
         try (Transaction tx = graphDb.beginTx()) {
-            for (Relationship inheritanceRelationship : variantNode.getRelationships(Direction.INCOMING)) {
-                Node foreignRunInfoNode = inheritanceRelationship.getStartNode();
-
-                if (excludedRunInfoNodeIds.contains(foreignRunInfoNode.getId())){
-                    return true;
-                }
+            Relationship userEventSubjectRelationship = eventNode.getSingleRelationship(hasUserEventSubjectRelationship, Direction.OUTGOING);
 
+            if (userEventSubjectRelationship != null){
+                return userEventSubjectRelationship.getEndNode();
             }
-        }
 
-        return false;
-    }
-    private String getTranscriptBiotype(String biotypeRelName){
-        if (biotypeRelName.length() > 12) {
-            return biotypeRelName.substring(4, biotypeRelName.length() - 8);
-        } else {
-            return biotypeRelName;
-        }
-    }
-    private String getFunctionalConsequence(String consequenceRelName){
-        if (consequenceRelName.length() > 12) {
-            return consequenceRelName.substring(4, consequenceRelName.length() - 12);
-        } else {
-            return consequenceRelName;
         }
+
+        //event has not been backfilled
+        return getSubjectNodeFromEventNodeByTraversal(eventNode);
     }
-    private Node getSubjectNodeFromEventNode(Node eventNode){
+    private Node getSubjectNodeFromEventNodeByTraversal(Node eventNode){
 
         Node subjectNode = null;
         org.neo4j.graphdb.Path longestPath = null;
@@ -2821,58 +4117,116 @@ public class VariantDatabasePlugin
 
         return subjectNode;
     }
-    private Node getLastUserEventNode(Node subjectNode){
+    /**
+     * Events of one type awaiting authorisation; until the labels are backfilled every event's status is read from its chain
+     */
+    private ArrayList<Node> getPendingAuthEventNodes(Label eventNodeLabel){
+        ArrayList<Node> eventNodes = new ArrayList<>();
+
+        try (ResourceIterator<Node> iter = graphDb.findNodes(pendingAuthLabelCurrent ? pendingAuthLabel : eventNodeLabel)) {
+            while (iter.hasNext()) {
+                Node eventNode = iter.next();
+
+                if (pendingAuthLabelCurrent ? eventNode.hasLabel(eventNodeLabel) : EventChain.getUserEventStatus(eventNode) == UserEventStatus.PENDING_AUTH){
+                    eventNodes.add(eventNode);
+                }
+            }
+        }
 
-        Node lastEventNode = null;
-        org.neo4j.graphdb.Path longestPath = null;
+        return eventNodes;
+    }
+    private int backfillUserEventChain(Node subjectNode){
+
+        int events = 0;
 
         try (Transaction tx = graphDb.beginTx()) {
-            for (org.neo4j.graphdb.Path path : graphDb.traversalDescription()
-                    .uniqueness(Uniqueness.RELATIONSHIP_GLOBAL)
-                    .uniqueness(Uniqueness.NODE_GLOBAL)
-                    .relationships(VariantDatabase.getHasUserEventRelationship(), Direction.OUTGOING)
-                    .traverse(subjectNode)) {
-                longestPath = path;
+            Relationship hasUserEventRelationship = subjectNode.getSingleRelationship(VariantDatabase.getHasUserEventRelationship(), Direction.OUTGOING);
+
+            //walk chain
+            while (hasUserEventRelationship != null){
+                Node eventNode = hasUserEventRelationship.getEndNode();
+
+                if (!eventNode.hasRelationship(Direction.OUTGOING, hasUserEventSubjectRelationship)){
+                    eventNode.createRelationshipTo(subjectNode, hasUserEventSubjectRelationship);
+                    events++;
+                }
+                if (!eventNode.hasLabel(pendingAuthLabel) && EventChain.getUserEventStatus(eventNode) == UserEventStatus.PENDING_AUTH){
+                    eventNode.addLabel(pendingAuthLabel);
+                }
+
+                hasUserEventRelationship = eventNode.getSingleRelationship(VariantDatabase.getHasUserEventRelationship(), Direction.OUTGOING);
             }
 
-            //loop over nodes in this path
-            for (Node node : longestPath.nodes()) {
-                lastEventNode = node;
-            }
+            tx.success();
+        }
+
+        return events;
+    }
+    private Node getLastUserEventNode(Node subjectNode){
+        Relationship lastUserEventRelationship = subjectNode.getSingleRelationship(hasLastUserEventRelationship, Direction.OUTGOING);
+
+        if (lastUserEventRelationship != null){
+            return lastUserEventRelationship.getEndNode();
+        }
 
+        //chain has not been backfilled
+        if (subjectNode.hasRelationship(Direction.OUTGOING, VariantDatabase.getHasUserEventRelationship())){
+            return EventChain.read(subjectNode).getLastEventNode();
         }
 
-        return lastEventNode;
+        return subjectNode;
     }
     private Node getLastActiveUserEventNode(Node subjectNode){
+        Relationship lastActiveUserEventRelationship = subjectNode.getSingleRelationship(hasLastActiveUserEventRelationship, Direction.OUTGOING);
 
-        Node lastEventNode = null;
-        org.neo4j.graphdb.Path longestPath = null;
+        if (lastActiveUserEventRelationship != null){
+            return lastActiveUserEventRelationship.getEndNode();
+        }
+
+        //pointers are maintained but no event has been authorised
+        if (subjectNode.hasRelationship(Direction.OUTGOING, hasLastUserEventRelationship)){
+            return null;
+        }
+
+        //chain has not been backfilled
+        if (subjectNode.hasRelationship(Direction.OUTGOING, VariantDatabase.getHasUserEventRelationship())){
+            return EventChain.read(subjectNode).getLastActiveEventNode();
+        }
+
+        return null;
+    }
+    private void setUserEventPointers(Node subjectNode){
 
         try (Transaction tx = graphDb.beginTx()) {
-            for (org.neo4j.graphdb.Path path : graphDb.traversalDescription()
-                    .uniqueness(Uniqueness.RELATIONSHIP_GLOBAL)
-                    .uniqueness(Uniqueness.NODE_GLOBAL)
-                    .relationships(VariantDatabase.getHasUserEventRelationship(), Direction.OUTGOING)
-                    .traverse(subjectNode)) {
-                longestPath = path;
+            EventChain eventChain = EventChain.read(subjectNode);
+            Node lastEventNode = eventChain.getLastEventNode();
+            Node lastActiveEventNode = eventChain.getLastActiveEventNode();
+
+            for (Relationship relationship : subjectNode.getRelationships(Direction.OUTGOING, hasLastUserEventRelationship, hasLastActiveUserEventRelationship)){
+                relationship.delete();
             }
 
-            //loop over nodes in this path
-            for (Node node : longestPath.nodes()) {
-                if (getUserEventStatus(node) == UserEventStatus.ACTIVE){
-                    lastEventNode = node;
-                }
+            if (lastEventNode.getId() != subjectNode.getId()){
+                subjectNode.createRelationshipTo(lastEventNode, hasLastUserEventRelationship);
+            }
+            if (lastActiveEventNode != null){
+                subjectNode.createRelationshipTo(lastActiveEventNode, hasLastActiveUserEventRelationship);
             }
 
+            tx.success();
         }
 
-        return lastEventNode;
     }
-    private void addUserEvent(Node lastUserEventNode, Label newEventNodeLabel, HashMap<String, Object> properties, Node userNode) {
+    private void addUserEvent(Node subjectNode, Node lastUserEventNode, Label newEventNodeLabel, HashMap<String, Object> properties, Node userNode) {
 
         try (Transaction tx = graphDb.beginTx()) {
-            Node newEventNode = graphDb.createNode(newEventNodeLabel);
+
+            //chain has not been backfilled
+            if (!subjectNode.hasRelationship(Direction.OUTGOING, hasLastUserEventRelationship) && subjectNode.hasRelationship(Direction.OUTGOING, VariantDatabase.getHasUserEventRelationship())){
+                setUserEventPointers(subjectNode);
+            }
+
+            Node newEventNode = graphDb.createNode(newEventNodeLabel, pendingAuthLabel);
 
             for (Map.Entry<String, Object> iter : properties.entrySet()){
                 newEventNode.setProperty(iter.getKey(), iter.getValue());
@@ -2882,369 +4236,685 @@ public class VariantDatabasePlugin
             addedByRelationship.setProperty("date", new Date().getTime());
 
             lastUserEventNode.createRelationshipTo(newEventNode, VariantDatabase.getHasUserEventRelationship());
+            newEventNode.createRelationshipTo(subjectNode, hasUserEventSubjectRelationship);
+
+            //move head pointer
+            for (Relationship lastUserEventRelationship : subjectNode.getRelationships(Direction.OUTGOING, hasLastUserEventRelationship)){
+                lastUserEventRelationship.delete();
+            }
+            subjectNode.createRelationshipTo(newEventNode, hasLastUserEventRelationship);
 
             tx.success();
         }
 
     }
-    private void authUserEvent(Node eventNode, Node userNode, boolean acceptOrReject){
-        try (Transaction tx = graphDb.beginTx()) {
-            Relationship authByRelationship = eventNode.createRelationshipTo(userNode, acceptOrReject ? VariantDatabase.getAuthorisedByRelationship() : VariantDatabase.getRejectedByRelationship());
-            authByRelationship.setProperty("date", new Date().getTime());
-            tx.success();
+    private void appendUserEvent(Node subjectNode, Label newEventNodeLabel, HashMap<String, Object> properties, Node userNode, String pendingAuthMessage) {
+
+        //serialise appends to the same subject in this JVM before queueing on the graph lock
+        synchronized (userEventLocks[(int) (subjectNode.getId() & (userEventLocks.length - 1))]) {
+            try (Transaction tx = graphDb.beginTx()) {
+                appendUserEventLocked(subjectNode, newEventNodeLabel, properties, userNode, pendingAuthMessage);
+                tx.success();
+            }
         }
+
     }
-    private UserEventStatus getUserEventStatus(Node eventNode) {
-        Relationship addedbyRelationship, authorisedByRelationship, rejectedByRelationship;
+    private void appendUserEventLocked(Node subjectNode, Label newEventNodeLabel, HashMap<String, Object> properties, Node userNode, String pendingAuthMessage) {
 
+        //the caller's transaction holds these locks until commit, so the tail cannot move between the read and the append
         try (Transaction tx = graphDb.beginTx()) {
-            addedbyRelationship = eventNode.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
-            authorisedByRelationship = eventNode.getSingleRelationship(VariantDatabase.getAuthorisedByRelationship(), Direction.OUTGOING);
-            rejectedByRelationship = eventNode.getSingleRelationship(VariantDatabase.getRejectedByRelationship(), Direction.OUTGOING);
-        }
+            tx.acquireWriteLock(subjectNode);
 
-        if (authorisedByRelationship == null && rejectedByRelationship == null){
-            return UserEventStatus.PENDING_AUTH;
-        }
+            Node lastEventNode = getLastUserEventNode(subjectNode);
+            tx.acquireWriteLock(lastEventNode);
+
+            if (lastEventNode.getId() != subjectNode.getId() && EventChain.getUserEventStatus(lastEventNode) == UserEventStatus.PENDING_AUTH){
+                throw new IllegalArgumentException(pendingAuthMessage);
+            }
 
-        if (authorisedByRelationship != null && rejectedByRelationship == null){
-            return UserEventStatus.ACTIVE;
+            addUserEvent(subjectNode, lastEventNode, newEventNodeLabel, properties, userNode);
+
+            tx.success();
         }
 
-        if (authorisedByRelationship == null && rejectedByRelationship != null){
-            return UserEventStatus.REJECTED;
+    }
+    /**
+     * @return false without writing if the event was no longer pending once the subject was locked
+     */
+    private boolean authUserEvent(Node eventNode, Node userNode, boolean acceptOrReject){
+        try (Transaction tx = graphDb.beginTx()) {
+            tx.acquireWriteLock(getSubjectNodeFromEventNode(eventNode));
+
+            //every authorisation takes this lock, so a status read under it cannot be overtaken
+            if (EventChain.getUserEventStatus(eventNode) != UserEventStatus.PENDING_AUTH){
+                //nothing written; closing a nested transaction unmarked would roll back the caller's chunk
+                tx.success();
+                return false;
+            }
+
+            //accepting a QC result can change whether the run counts towards variant occurrence
+            if (acceptOrReject && eventNode.hasLabel(VariantDatabase.getQualityControlLabel())){
+                Node runInfoNode = getSubjectNodeFromEventNode(eventNode);
+                Node lastActiveEventNode = getLastActiveUserEventNode(runInfoNode);
+
+                boolean passedQc = lastActiveEventNode != null && (boolean) lastActiveEventNode.getProperty("passOrFail");
+                boolean passesQc = (boolean) eventNode.getProperty("passOrFail");
+
+                if (passedQc != passesQc){
+                    updateVariantOccurrenceQcPass(runInfoNode, passesQc ? 1 : -1);
+                }
+
+            }
+
+            Relationship authByRelationship = eventNode.createRelationshipTo(userNode, acceptOrReject ? VariantDatabase.getAuthorisedByRelationship() : VariantDatabase.getRejectedByRelationship());
+            authByRelationship.setProperty("date", new Date().getTime());
+            eventNode.removeLabel(pendingAuthLabel);
+
+            //move active pointer; only the last event on a chain can be pending so an accepted event is always the latest active
+            Node subjectNode = getSubjectNodeFromEventNode(eventNode);
+
+            if (!subjectNode.hasRelationship(Direction.OUTGOING, hasLastUserEventRelationship)){
+                setUserEventPointers(subjectNode);
+            } else if (acceptOrReject) {
+                for (Relationship lastActiveUserEventRelationship : subjectNode.getRelationships(Direction.OUTGOING, hasLastActiveUserEventRelationship)){
+                    lastActiveUserEventRelationship.delete();
+                }
+                subjectNode.createRelationshipTo(eventNode, hasLastActiveUserEventRelationship);
+            }
+
+            tx.success();
         }
 
-        return null;
+        return true;
+    }
+    private void onUserEventAuthorised(Node eventNode){
+        try (Transaction tx = graphDb.beginTx()) {
+            if (eventNode.hasLabel(VariantDatabase.getQualityControlLabel())){
+                invalidateRunQcStatus(getSubjectNodeFromEventNode(eventNode).getId());
+            }
+            if (eventNode.hasLabel(VariantDatabase.getFeaturePreferenceLabel())){
+                updateFeaturePreference(getSubjectNodeFromEventNode(eventNode));
+                invalidateAnnotationInformation();
+            }
+        }
     }
 
     /*write functions*/
     private void writeFullUserInformation(Node userNode, JsonGenerator jg) throws IOException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (!userNode.hasLabel(VariantDatabase.getUserLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getUserLabel().name() + " got " + userNode.getLabels().toString());
+        if (!userNode.hasLabel(VariantDatabase.getUserLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getUserLabel().name() + " got " + userNode.getLabels().toString());
 
-            jg.writeNumberField("userNodeId", userNode.getId());
+        jg.writeNumberField("userNodeId", userNode.getId());
 
-            if (userNode.hasProperty("userId")) jg.writeStringField("userId", userNode.getProperty("userId").toString());
-            if (userNode.hasProperty("password")) jg.writeStringField("password", userNode.getProperty("password").toString());
-            if (userNode.hasProperty("admin")) jg.writeBooleanField("admin", (boolean) userNode.getProperty("admin"));
-            if (userNode.hasProperty("fullName")) jg.writeStringField("fullName", userNode.getProperty("fullName").toString());
-            if (userNode.hasProperty("jobTitle")) jg.writeStringField("jobTitle", userNode.getProperty("jobTitle").toString());
-            if (userNode.hasProperty("emailAddress")) jg.writeStringField("emailAddress", userNode.getProperty("emailAddress").toString());
-            if (userNode.hasProperty("contactNumber")) jg.writeStringField("contactNumber", userNode.getProperty("contactNumber").toString());
+        if (userNode.hasProperty("userId")) jg.writeStringField("userId", userNode.getProperty("userId").toString());
+        if (userNode.hasProperty("password")) jg.writeStringField("password", userNode.getProperty("password").toString());
+        if (userNode.hasProperty("admin")) jg.writeBooleanField("admin", (boolean) userNode.getProperty("admin"));
+        if (userNode.hasProperty("fullName")) jg.writeStringField("fullName", userNode.getProperty("fullName").toString());
+        if (userNode.hasProperty("jobTitle")) jg.writeStringField("jobTitle", userNode.getProperty("jobTitle").toString());
+        if (userNode.hasProperty("emailAddress")) jg.writeStringField("emailAddress", userNode.getProperty("emailAddress").toString());
+        if (userNode.hasProperty("contactNumber")) jg.writeStringField("contactNumber", userNode.getProperty("contactNumber").toString());
 
-        }
     }
-    private void writeLiteUserInformation(Node userNode, JsonGenerator jg) throws IOException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (!userNode.hasLabel(VariantDatabase.getUserLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getUserLabel().name() + " got " + userNode.getLabels().toString());
+    private void writeLiteUserInformation(ReadContext ctx, Node userNode, JsonGenerator jg) throws IOException {
+        LiteUser liteUser = ctx.liteUsers.get(userNode.getId());
 
-            jg.writeNumberField("userNodeId", userNode.getId());
-            if (userNode.hasProperty("admin")) jg.writeBooleanField("admin", (boolean) userNode.getProperty("admin"));
-            if (userNode.hasProperty("fullName")) jg.writeStringField("fullName", userNode.getProperty("fullName").toString());
+        if (liteUser == null){
+            if (!userNode.hasLabel(VariantDatabase.getUserLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getUserLabel().name() + " got " + userNode.getLabels().toString());
 
+            liteUser = new LiteUser((Boolean) userNode.getProperty("admin", null), userNode.hasProperty("fullName") ? userNode.getProperty("fullName").toString() : null);
+            ctx.liteUsers.put(userNode.getId(), liteUser);
         }
+
+        jg.writeNumberField("userNodeId", userNode.getId());
+        if (liteUser.admin != null) jg.writeBooleanField("admin", liteUser.admin);
+        if (liteUser.fullName != null) jg.writeStringField("fullName", liteUser.fullName);
+
     }
     private void writeSampleInformation(Node sampleNode, JsonGenerator jg) throws IOException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (!sampleNode.hasLabel(VariantDatabase.getSampleLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getSampleLabel().name() + " got " + sampleNode.getLabels().toString());
+        if (!sampleNode.hasLabel(VariantDatabase.getSampleLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getSampleLabel().name() + " got " + sampleNode.getLabels().toString());
 
-            jg.writeNumberField("sampleNodeId", sampleNode.getId());
-            jg.writeStringField("sampleId", sampleNode.getProperty("sampleId").toString());
-            jg.writeStringField("tissue", sampleNode.getProperty("tissue").toString());
-        }
+        jg.writeNumberField("sampleNodeId", sampleNode.getId());
+        jg.writeStringField("sampleId", sampleNode.getProperty("sampleId").toString());
+        jg.writeStringField("tissue", sampleNode.getProperty("tissue").toString());
     }
     private void writeRunInformation(Node runInfoNode, JsonGenerator jg) throws IOException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (!runInfoNode.hasLabel(VariantDatabase.getRunInfoLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getRunInfoLabel().name() + " got " + runInfoNode.getLabels().toString());
-
-            jg.writeNumberField("runInfoNodeId", runInfoNode.getId());
-
-            if (runInfoNode.hasProperty("worklistId"))
-                jg.writeStringField("worklistId", runInfoNode.getProperty("worklistId").toString());
-            if (runInfoNode.hasProperty("seqId"))
-                jg.writeStringField("seqId", runInfoNode.getProperty("seqId").toString());
-            if (runInfoNode.hasProperty("assay"))
-                jg.writeStringField("assay", runInfoNode.getProperty("assay").toString());
-            if (runInfoNode.hasProperty("pipelineName"))
-                jg.writeStringField("pipelineName", runInfoNode.getProperty("pipelineName").toString());
-            if (runInfoNode.hasProperty("pipelineVersion"))
-                jg.writeNumberField("pipelineVersion", (int) runInfoNode.getProperty("pipelineVersion"));
-            if (runInfoNode.hasProperty("remoteVcfFilePath"))
-                jg.writeStringField("remoteVcfFilePath", runInfoNode.getProperty("remoteVcfFilePath").toString());
-            if (runInfoNode.hasProperty("remoteBamFilePath"))
-                jg.writeStringField("remoteBamFilePath", runInfoNode.getProperty("remoteBamFilePath").toString());
-
-            //QC
-            if (runInfoNode.hasProperty("GenotypicGender"))
-                jg.writeStringField("GenotypicGender", runInfoNode.getProperty("GenotypicGender").toString());
-            if (runInfoNode.hasProperty("EstimatedContamination"))
-                jg.writeNumberField("EstimatedContamination", (float) runInfoNode.getProperty("EstimatedContamination"));
-            if (runInfoNode.hasProperty("PercentageGt30"))
-                jg.writeNumberField("PercentageGt30", (float) runInfoNode.getProperty("PercentageGt30"));
-            if (runInfoNode.hasProperty("DuplicationRate"))
-                jg.writeNumberField("DuplicationRate", (float) runInfoNode.getProperty("DuplicationRate"));
+        if (!runInfoNode.hasLabel(VariantDatabase.getRunInfoLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getRunInfoLabel().name() + " got " + runInfoNode.getLabels().toString());
+
+        jg.writeNumberField("runInfoNodeId", runInfoNode.getId());
+
+        if (runInfoNode.hasProperty("worklistId"))
+            jg.writeStringField("worklistId", runInfoNode.getProperty("worklistId").toString());
+        if (runInfoNode.hasProperty("seqId"))
+            jg.writeStringField("seqId", runInfoNode.getProperty("seqId").toString());
+        if (runInfoNode.hasProperty("assay"))
+            jg.writeStringField("assay", runInfoNode.getProperty("assay").toString());
+        if (runInfoNode.hasProperty("pipelineName"))
+            jg.writeStringField("pipelineName", runInfoNode.getProperty("pipelineName").toString());
+        if (runInfoNode.hasProperty("pipelineVersion"))
+            jg.writeNumberField("pipelineVersion", (int) runInfoNode.getProperty("pipelineVersion"));
+        if (runInfoNode.hasProperty("remoteVcfFilePath"))
+            jg.writeStringField("remoteVcfFilePath", runInfoNode.getProperty("remoteVcfFilePath").toString());
+        if (runInfoNode.hasProperty("remoteBamFilePath"))
+            jg.writeStringField("remoteBamFilePath", runInfoNode.getProperty("remoteBamFilePath").toString());
+
+        //QC
+        if (runInfoNode.hasProperty("GenotypicGender"))
+            jg.writeStringField("GenotypicGender", runInfoNode.getProperty("GenotypicGender").toString());
+        if (runInfoNode.hasProperty("EstimatedContamination"))
+            jg.writeNumberField("EstimatedContamination", (float) runInfoNode.getProperty("EstimatedContamination"));
+        if (runInfoNode.hasProperty("PercentageGt30"))
+            jg.writeNumberField("PercentageGt30", (float) runInfoNode.getProperty("PercentageGt30"));
+        if (runInfoNode.hasProperty("DuplicationRate"))
+            jg.writeNumberField("DuplicationRate", (float) runInfoNode.getProperty("DuplicationRate"));
 
-        }
     }
     private void writeVirtualPanelInformation(Node virtualPanelNode, JsonGenerator jg) throws IOException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (!virtualPanelNode.hasLabel(VariantDatabase.getVirtualPanelLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getVirtualPanelLabel().name() + " got " + virtualPanelNode.getLabels().toString());
-
-            Relationship designedByRelationship = virtualPanelNode.getSingleRelationship(VariantDatabase.getDesignedByRelationship(), Direction.OUTGOING);
-            Node userNode = designedByRelationship.getEndNode();
+        if (!virtualPanelNode.hasLabel(VariantDatabase.getVirtualPanelLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getVirtualPanelLabel().name() + " got " + virtualPanelNode.getLabels().toString());
 
-            jg.writeNumberField("panelNodeId", virtualPanelNode.getId());
+        Relationship designedByRelationship = virtualPanelNode.getSingleRelationship(VariantDatabase.getDesignedByRelationship(), Direction.OUTGOING);
+        Node userNode = designedByRelationship.getEndNode();
 
-            if (virtualPanelNode.hasProperty("virtualPanelName"))
-                jg.writeStringField("virtualPanelName", virtualPanelNode.getProperty("virtualPanelName").toString());
-            if (designedByRelationship.hasProperty("date"))
-                jg.writeNumberField("date", (long) designedByRelationship.getProperty("date"));
-            if (userNode.hasLabel(VariantDatabase.getUserLabel()) && userNode.hasProperty("fullName"))
-                jg.writeStringField("fullName", userNode.getProperty("fullName").toString());
+        jg.writeNumberField("panelNodeId", virtualPanelNode.getId());
 
-        }
+        if (virtualPanelNode.hasProperty("virtualPanelName"))
+            jg.writeStringField("virtualPanelName", virtualPanelNode.getProperty("virtualPanelName").toString());
+        if (designedByRelationship.hasProperty("date"))
+            jg.writeNumberField("date", (long) designedByRelationship.getProperty("date"));
+        if (userNode.hasLabel(VariantDatabase.getUserLabel()) && userNode.hasProperty("fullName"))
+            jg.writeStringField("fullName", userNode.getProperty("fullName").toString());
 
     }
-    private void writeSymbolInformation(Node symbolNode, JsonGenerator jg) throws IOException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (!symbolNode.hasLabel(VariantDatabase.getSymbolLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getSymbolLabel().name() + " got " + symbolNode.getLabels().toString());
+    private byte[] getAnnotationInformation(long variantNodeId) throws IOException {
+        byte[] annotationInformation = annotationInfoCache.get(variantNodeId);
+        if (annotationInformation != null) return annotationInformation;
 
-            jg.writeNumberField("symbolNodeId", symbolNode.getId());
+        long generation = annotationInfoCacheGeneration.get();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonGenerator jg = objectMapper.getJsonFactory().createJsonGenerator(baos, JsonEncoding.UTF8);
 
-            if (symbolNode.hasProperty("symbolId")) {
-                jg.writeStringField("symbolId", symbolNode.getProperty("symbolId").toString());
-            }
+        jg.writeStartArray();
 
-            jg.writeArrayFieldStart("disorders");
+        try (ReadContext ctx = new ReadContext(graphDb)) {
+            Node variantNode = graphDb.getNodeById(variantNodeId);
 
-            for (Relationship hasAssociatedSymbolRelationship : symbolNode.getRelationships(Direction.INCOMING, VariantDatabase.getHasAssociatedSymbol())){
-                Node disorderNode = hasAssociatedSymbolRelationship.getStartNode();
+            for (Relationship consequenceRel : variantNode.getRelationships(Direction.OUTGOING)) {
+                Node annotationNode = consequenceRel.getEndNode();
 
-                jg.writeStartObject();
-                jg.writeStringField("disorder", disorderNode.getProperty("disorder").toString());
-                jg.writeEndObject();
+                if (annotationNode.hasLabel(VariantDatabase.getAnnotationLabel())){
 
-            }
+                    for (Relationship inFeatureRel : annotationNode.getRelationships(Direction.OUTGOING, VariantDatabase.getInFeatureRelationship())) {
+                        Node featureNode = inFeatureRel.getEndNode();
 
-            jg.writeEndArray();
+                        if (featureNode.hasLabel(VariantDatabase.getFeatureLabel())){
 
-        }
-    }
-    private void writeFeatureInformation(Node featureNode, JsonGenerator jg) throws IOException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (!featureNode.hasLabel(VariantDatabase.getFeatureLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getFeatureLabel().name() + " got " + featureNode.getLabels().toString());
+                            for (Relationship biotypeRel : featureNode.getRelationships(Direction.INCOMING)) {
+                                Node symbolNode = biotypeRel.getStartNode();
 
-            Node lastActiveEventNode = getLastActiveUserEventNode(featureNode);
+                                if (symbolNode.hasLabel(VariantDatabase.getSymbolLabel())){
 
-            jg.writeNumberField("featureNodeId", featureNode.getId());
+                                    jg.writeStartObject();
 
-            if (lastActiveEventNode != null){
-                jg.writeBooleanField("preference", (boolean) lastActiveEventNode.getProperty("preference"));
-            }
+                                    writeSymbolInformation(ctx, symbolNode, jg);
+                                    writeFeatureInformation(featureNode, jg);
+                                    writeFunctionalAnnotation(annotationNode, consequenceRel, biotypeRel, jg);
+
+                                    jg.writeEndObject();
+
+                                }
+
+                            }
+
+                        }
+
+                    }
 
-            if (featureNode.hasProperty("featureId"))
-                jg.writeStringField("featureId", featureNode.getProperty("featureId").toString());
-            if (featureNode.hasProperty("strand")) {
-                if ((boolean) featureNode.getProperty("strand")) {
-                    jg.writeStringField("strand", "+");
-                } else {
-                    jg.writeStringField("strand", "-");
                 }
+
             }
-            if (featureNode.hasProperty("ccdsId"))
-                jg.writeStringField("ccdsId", featureNode.getProperty("ccdsId").toString());
-            if (featureNode.hasProperty("featureType"))
-                jg.writeStringField("featureType", featureNode.getProperty("featureType").toString());
-            if (featureNode.hasProperty("totalExons"))
-                jg.writeNumberField("totalExons", (short) featureNode.getProperty("totalExons"));
-            if (featureNode.hasLabel(VariantDatabase.getCanonicalLabel())) {
-                jg.writeBooleanField("canonical", true);
-            } else {
-                jg.writeBooleanField("canonical", false);
-            }
 
         }
+
+        jg.writeEndArray();
+        jg.close();
+
+        annotationInformation = baos.toByteArray();
+
+        //do not cache a response built while annotations were changing, including a change landing as it is stored
+        if (annotationInfoCacheGeneration.get() == generation){
+            annotationInfoCache.put(variantNodeId, annotationInformation);
+            if (annotationInfoCacheGeneration.get() != generation) annotationInfoCache.remove(variantNodeId);
+        }
+
+        return annotationInformation;
     }
-    private void writeVariantInformation(Node variantNode, JsonGenerator jg) throws IOException {
-        try (Transaction tx = graphDb.beginTx()) {
-            if (!variantNode.hasLabel(VariantDatabase.getVariantLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getVariantLabel().name() + " got " + variantNode.getLabels().toString());
+    private static void invalidateAnnotationInformation(){
+        annotationInfoCacheGeneration.incrementAndGet();
+        annotationInfoCache.clear();
+    }
+    private static TransactionEventHandler<Boolean> getAnnotationInformationTransactionEventHandler(){
+        return new TransactionEventHandler.Adapter<Boolean>() {
 
-            Node lastActiveEventNode = getLastActiveUserEventNode(variantNode);
+            @Override
+            public Boolean beforeCommit(TransactionData data) throws Exception {
 
-            jg.writeNumberField("variantNodeId", variantNode.getId());
-            jg.writeNumberField("occurrence", getGlobalVariantOccurrenceQcPass(variantNode));
+                //annotation imports and omim updates change the cached responses
+                for (Relationship relationship : data.createdRelationships()) {
+                    if (isAnnotationInformationRelationship(relationship)) return true;
+                }
+                for (Relationship relationship : data.deletedRelationships()) {
+                    if (isAnnotationInformationRelationship(relationship)) return true;
+                }
 
-            //variant class
-            if (lastActiveEventNode != null){
-                jg.writeNumberField("classification", (int) lastActiveEventNode.getProperty("classification"));
+                return false;
             }
 
-            if (variantNode.hasLabel(VariantDatabase.getSnpLabel())) {
-                jg.writeStringField("type", "Snp");
-            } else if (variantNode.hasLabel(VariantDatabase.getIndelLabel())){
-                jg.writeStringField("type", "Indel");
+            @Override
+            public void afterCommit(TransactionData data, Boolean changed) {
+                if (changed != null && changed) invalidateAnnotationInformation();
             }
 
-            if (variantNode.hasProperty("variantId")) {
-                jg.writeStringField("variantId", variantNode.getProperty("variantId").toString());
-            }
-            if (variantNode.hasProperty("dbSnpId")){
-                jg.writeStringField("dbSnpId", variantNode.getProperty("dbSnpId").toString());
-            }
-            if (variantNode.hasProperty("gerp")) {
-                jg.writeNumberField("gerp", (float) variantNode.getProperty("gerp"));
-            }
-            if (variantNode.hasProperty("phyloP")) {
-                jg.writeNumberField("phyloP", (float) variantNode.getProperty("phyloP"));
-            }
-            if (variantNode.hasProperty("phastCons")) {
-                jg.writeNumberField("phastCons", (float) variantNode.getProperty("phastCons"));
-            }
-            for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()) {
-                if (variantNode.hasProperty("kGPhase3" + population.toString() + "Af")){
-                    jg.writeNumberField("kGPhase3" + population.toString() + "Af", (double) Math.round( ((float) variantNode.getProperty("kGPhase3" + population.toString() + "Af") * 100) * 100d) / 100d);
-                }
-            }
-            for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()) {
-                if (variantNode.hasProperty("exac" + population.toString() + "Af")){
-                    jg.writeNumberField("exac" + population.toString() + "Af", (double) Math.round( ((float) variantNode.getProperty("exac" + population.toString() + "Af") * 100) * 100d) / 100d);
+        };
+    }
+    private static boolean isAnnotationInformationRelationship(Relationship relationship){
+        return relationship.isType(VariantDatabase.getInFeatureRelationship()) ||
+                relationship.isType(VariantDatabase.getHasAssociatedSymbol()) ||
+                ConsequenceCatalogue.isAnnotationRelationship(relationship.getType());
+    }
+    /**
+     * Advances the versions of runs whose workflow rows a committed write can change. Authorised QC outcomes move occurrence counts
+     * and panel contents move panel gates, so those, removed calls and unresolvable changes advance every run.
+     */
+    private static TransactionEventHandler<WorkflowResultChanges> getWorkflowResultTransactionEventHandler(){
+        return new TransactionEventHandler.Adapter<WorkflowResultChanges>() {
+
+            @Override
+            public WorkflowResultChanges beforeCommit(TransactionData data) throws Exception {
+                WorkflowResultChanges changes = new WorkflowResultChanges();
+
+                try {
+                    for (Relationship relationship : data.createdRelationships()) {
+                        Node startNode = relationship.getStartNode();
+
+                        if (relationship.isType(VariantDatabase.getHasHetVariantRelationship()) || relationship.isType(VariantDatabase.getHasHomVariantRelationship())) {
+                            changes.runInfoNodeIds.add(startNode.getId());
+                        } else if (relationship.isType(hasLastActiveUserEventRelationship)) {
+                            if (startNode.hasLabel(VariantDatabase.getRunInfoLabel())) changes.all = true;
+                            if (startNode.hasLabel(VariantDatabase.getVariantLabel())) changes.variantNodeIds.add(startNode.getId());
+                        } else if (relationship.isType(VariantDatabase.getInSymbolRelationship()) || ConsequenceCatalogue.isAnnotationRelationship(relationship.getType())) {
+                            if (startNode.hasLabel(VariantDatabase.getVariantLabel())) changes.variantNodeIds.add(startNode.getId());
+                        } else if (relationship.isType(VariantDatabase.getContainsSymbolRelationship())) {
+                            changes.all = true;
+                        }
+                    }
+                    for (Relationship relationship : data.deletedRelationships()) {
+                        if (relationship.isType(VariantDatabase.getHasHetVariantRelationship()) || relationship.isType(VariantDatabase.getHasHomVariantRelationship()) ||
+                                relationship.isType(VariantDatabase.getInSymbolRelationship()) || relationship.isType(VariantDatabase.getContainsSymbolRelationship()) ||
+                                ConsequenceCatalogue.isAnnotationRelationship(relationship.getType())) {
+                            changes.all = true;
+                        }
+                    }
+
+                    if (changes.all) return changes;
+
+                    for (PropertyEntry<Node> propertyEntry : data.assignedNodeProperties()) {
+                        addWorkflowResultChange(data, propertyEntry.entity(), changes);
+                    }
+                    for (PropertyEntry<Node> propertyEntry : data.removedNodeProperties()) {
+                        addWorkflowResultChange(data, propertyEntry.entity(), changes);
+                    }
+
+                    //relabelling an existing annotation changes the severity of every variant pointing at it
+                    LongHashSet createdNodeIds = new LongHashSet();
+                    for (Node node : data.createdNodes()) createdNodeIds.add(node.getId());
+
+                    for (LabelEntry labelEntry : data.assignedLabels()) {
+                        if (labelEntry.label().name().equals(VariantDatabase.getAnnotationLabel().name()) && !createdNodeIds.contains(labelEntry.node().getId())) changes.all = true;
+                        addWorkflowResultChange(data, labelEntry.node(), changes);
+                    }
+                    for (LabelEntry labelEntry : data.removedLabels()) {
+                        if (labelEntry.label().name().equals(VariantDatabase.getAnnotationLabel().name())) changes.all = true;
+                        addWorkflowResultChange(data, labelEntry.node(), changes);
+                    }
+                } catch (NotFoundException e) {
+                    changes.all = true;
                 }
+
+                return changes.all || !changes.runInfoNodeIds.isEmpty() || !changes.variantNodeIds.isEmpty() ? changes : null;
             }
-            jg.writeBooleanField("severe", variantHasSevereConsequence(variantNode));
-            if (variantNode.hasProperty("clinvar")) {
-                jg.writeArrayFieldStart("clinvar");
 
-                for (int clinSig : (int[]) variantNode.getProperty("clinvar")){
-                    jg.writeNumber(clinSig);
+            @Override
+            public void afterCommit(TransactionData data, WorkflowResultChanges changes) {
+                WorkflowResultCache resultCache = workflowResultCache;
+                if (changes == null || resultCache == null) return;
+
+                //fanning a bulk import out to every run carrying its variants costs more than recomputing
+                if (changes.all || (!changes.variantNodeIds.isEmpty() && (!variantRunIndex.isReady() || changes.variantNodeIds.size() > 1000))) {
+                    resultCache.invalidateAll();
+                    return;
                 }
 
-                jg.writeEndArray();
+                for (long runInfoNodeId : changes.runInfoNodeIds.toArray()) {
+                    resultCache.invalidateRun(runInfoNodeId);
+                }
+                for (long variantNodeId : changes.variantNodeIds.toArray()) {
+                    for (int ordinal : variantRunIndex.getHetRuns(variantNodeId).toArray()) resultCache.invalidateRun(variantRunIndex.getRunInfoNodeId(ordinal));
+                    for (int ordinal : variantRunIndex.getHomRuns(variantNodeId).toArray()) resultCache.invalidateRun(variantRunIndex.getRunInfoNodeId(ordinal));
+                }
             }
 
+        };
+    }
+    private static void addWorkflowResultChange(TransactionData data, Node node, WorkflowResultChanges changes){
+        //deleted nodes lose their relationships too, which are handled above
+        if (data.isDeleted(node)) return;
+
+        if (node.hasLabel(VariantDatabase.getVariantLabel())){
+            changes.variantNodeIds.add(node.getId());
+        } else if (node.hasLabel(VariantDatabase.getRunInfoLabel())){
+            changes.runInfoNodeIds.add(node.getId());
         }
     }
-    private void writeFunctionalAnnotation(Node annotationNode, Relationship consequenceRel, Relationship biotypeRel, JsonGenerator jg) throws IOException {
+    private SymbolDisorders getSymbolDisorders(Node symbolNode){
+        Map<Long, SymbolDisorders> symbolDisorders = symbolDisordersCache;
+        if (symbolDisorders == null) symbolDisorders = loadSymbolDisorders();
 
-        String[] domainSources = {"pfamDomain", "hmmpanther", "prosite", "superfamilyDomains"};
+        SymbolDisorders disorders = symbolDisorders.get(symbolNode.getId());
+        return disorders == null ? SymbolDisorders.NONE : disorders;
+    }
+    private Map<Long, SymbolDisorders> loadSymbolDisorders(){
+        HashMap<Long, ArrayList<String>> disordersBySymbol = new HashMap<>();
+        HashMap<Long, SymbolDisorders> symbolDisorders = new HashMap<>();
 
         try (Transaction tx = graphDb.beginTx()) {
-            if (!annotationNode.hasLabel(VariantDatabase.getAnnotationLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getAnnotationLabel().name() + " got " + annotationNode.getLabels().toString());
+            try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getDisorderLabel())) {
+
+                while (iter.hasNext()) {
+                    Node disorderNode = iter.next();
+                    String disorder = disorderNode.getProperty("disorder").toString();
+
+                    for (Relationship hasAssociatedSymbolRelationship : disorderNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasAssociatedSymbol())){
+                        long symbolNodeId = hasAssociatedSymbolRelationship.getEndNode().getId();
 
-            jg.writeNumberField("annotationNodeId", annotationNode.getId());
+                        if (!disordersBySymbol.containsKey(symbolNodeId)) disordersBySymbol.put(symbolNodeId, new ArrayList<String>());
+                        disordersBySymbol.get(symbolNodeId).add(disorder);
+                    }
+
+                }
 
-            if (annotationNode.hasProperty("hgvsc"))
-                jg.writeStringField("hgvsc", annotationNode.getProperty("hgvsc").toString());
-            if (annotationNode.hasProperty("hgvsp"))
-                jg.writeStringField("hgvsp", annotationNode.getProperty("hgvsp").toString());
-            if (annotationNode.hasProperty("exon")) {
-                jg.writeStringField("location", annotationNode.getProperty("exon").toString());
-            } else if (annotationNode.hasProperty("intron")) {
-                jg.writeStringField("location", annotationNode.getProperty("intron").toString());
             }
-            if (annotationNode.hasProperty("sift"))
-                jg.writeStringField("sift", annotationNode.getProperty("sift").toString());
-            if (annotationNode.hasProperty("polyphen"))
-                jg.writeStringField("polyphen", annotationNode.getProperty("polyphen").toString());
-            if (annotationNode.hasProperty("codons"))
-                jg.writeStringField("codons", annotationNode.getProperty("codons").toString());
+        }
+
+        for (Map.Entry<Long, ArrayList<String>> iter : disordersBySymbol.entrySet()){
+            symbolDisorders.put(iter.getKey(), new SymbolDisorders(iter.getValue().toArray(new String[iter.getValue().size()])));
+        }
+
+        //swap in whole so readers never see a partial map
+        symbolDisordersCache = symbolDisorders;
+
+        return symbolDisorders;
+    }
+    private Boolean getFeaturePreference(Node featureNode){
+        if (featurePreferenceCacheLoaded) return featurePreferenceCache.get(featureNode.getId());
+        return readFeaturePreference(featureNode);
+    }
+    private Boolean readFeaturePreference(Node featureNode){
+        Node lastActiveEventNode = getLastActiveUserEventNode(featureNode);
+        return lastActiveEventNode == null ? null : (Boolean) lastActiveEventNode.getProperty("preference");
+    }
+    private int loadFeaturePreferences(){
+        HashMap<Long, Boolean> featurePreferences = new HashMap<>();
+
+        while (true) {
+            long generation = featurePreferenceCacheGeneration.get();
+            HashSet<Long> featureNodeIds = new HashSet<>();
 
-            //domains
-            for (String source : domainSources){
+            featurePreferences.clear();
 
-                if (annotationNode.hasProperty(source)) {
-                    String[] domains = (String[]) annotationNode.getProperty(source);
+            try (Transaction tx = graphDb.beginTx()) {
+                try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getFeaturePreferenceLabel())) {
 
-                    jg.writeArrayFieldStart(source);
+                    while (iter.hasNext()) {
+                        Node featureNode = getSubjectNodeFromEventNode(iter.next());
+                        if (!featureNodeIds.add(featureNode.getId())) continue;
 
-                    for (String domain : domains) {
-                        jg.writeString(domain);
+                        Boolean featurePreference = readFeaturePreference(featureNode);
+                        if (featurePreference != null) featurePreferences.put(featureNode.getId(), featurePreference);
                     }
 
-                    jg.writeEndArray();
                 }
+            }
+
+            //an authorisation during the scan may have been missed
+            synchronized (featurePreferenceCache) {
+                if (featurePreferenceCacheGeneration.get() == generation) {
+                    featurePreferenceCache.clear();
+                    featurePreferenceCache.putAll(featurePreferences);
+                    featurePreferenceCacheLoaded = true;
+                    return featurePreferences.size();
+                }
+            }
+        }
 
+    }
+    private void updateFeaturePreference(Node featureNode){
+        synchronized (featurePreferenceCache) {
+            featurePreferenceCacheGeneration.incrementAndGet();
+
+            Boolean featurePreference = readFeaturePreference(featureNode);
+            if (featurePreference != null) {
+                featurePreferenceCache.put(featureNode.getId(), featurePreference);
+            } else {
+                featurePreferenceCache.remove(featureNode.getId());
             }
+        }
+    }
+    private void writeSymbolInformation(ReadContext ctx, Node symbolNode, JsonGenerator jg) throws IOException {
+        if (!symbolNode.hasLabel(VariantDatabase.getSymbolLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getSymbolLabel().name() + " got " + symbolNode.getLabels().toString());
+
+        jg.writeNumberField("symbolNodeId", symbolNode.getId());
+
+        //symbols repeat across a variant's annotations
+        String symbolId = ctx.symbolIds.get(symbolNode.getId());
+        if (symbolId == null && !ctx.symbolIds.containsKey(symbolNode.getId())) {
+            symbolId = symbolNode.hasProperty("symbolId") ? symbolNode.getProperty("symbolId").toString() : null;
+            ctx.symbolIds.put(symbolNode.getId(), symbolId);
+        }
 
-            //consequence
-            jg.writeStringField("consequence", getFunctionalConsequence(consequenceRel.getType().name()));
+        if (symbolId != null) {
+            jg.writeStringField("symbolId", symbolId);
+        }
 
-            //biotype
-            jg.writeStringField("biotype", getTranscriptBiotype(biotypeRel.getType().name()));
+        jg.writeArrayFieldStart("disorders");
 
+        for (String disorder : getSymbolDisorders(symbolNode).disorders){
+            jg.writeStartObject();
+            jg.writeStringField("disorder", disorder);
+            jg.writeEndObject();
         }
 
+        jg.writeEndArray();
+
     }
-    private void writeEventHistory(Node subjectNode, JsonGenerator jg) throws IOException {
-        org.neo4j.graphdb.Path longestPath = null;
+    private void writeFeatureInformation(Node featureNode, JsonGenerator jg) throws IOException {
+        writeFeatureInformation(featureNode, getFeaturePreference(featureNode), jg);
+    }
+    private void writeFeatureInformation(Node featureNode, Boolean featurePreference, JsonGenerator jg) throws IOException {
+        if (!featureNode.hasLabel(VariantDatabase.getFeatureLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getFeatureLabel().name() + " got " + featureNode.getLabels().toString());
 
-        jg.writeArrayFieldStart("history");
+        jg.writeNumberField("featureNodeId", featureNode.getId());
 
-        try (Transaction tx = graphDb.beginTx()) {
+        if (featurePreference != null){
+            jg.writeBooleanField("preference", featurePreference);
+        }
 
-            //get longest path
-            for (org.neo4j.graphdb.Path path : graphDb.traversalDescription()
-                    .uniqueness(Uniqueness.RELATIONSHIP_GLOBAL)
-                    .uniqueness(Uniqueness.NODE_GLOBAL)
-                    .relationships(VariantDatabase.getHasUserEventRelationship(), Direction.OUTGOING)
-                    .traverse(subjectNode)) {
-                longestPath = path;
+        if (featureNode.hasProperty("featureId"))
+            jg.writeStringField("featureId", featureNode.getProperty("featureId").toString());
+        if (featureNode.hasProperty("strand")) {
+            if ((boolean) featureNode.getProperty("strand")) {
+                jg.writeStringField("strand", "+");
+            } else {
+                jg.writeStringField("strand", "-");
             }
+        }
+        if (featureNode.hasProperty("ccdsId"))
+            jg.writeStringField("ccdsId", featureNode.getProperty("ccdsId").toString());
+        if (featureNode.hasProperty("featureType"))
+            jg.writeStringField("featureType", featureNode.getProperty("featureType").toString());
+        if (featureNode.hasProperty("totalExons"))
+            jg.writeNumberField("totalExons", (short) featureNode.getProperty("totalExons"));
+        if (featureNode.hasLabel(VariantDatabase.getCanonicalLabel())) {
+            jg.writeBooleanField("canonical", true);
+        } else {
+            jg.writeBooleanField("canonical", false);
+        }
 
-            //loop over nodes in this path
-            for (Node eventNode : longestPath.nodes()) {
-                if (eventNode.getId() == subjectNode.getId()) continue;
+    }
+    private void writeVariantInformation(ReadContext ctx, Node variantNode, JsonGenerator jg) throws IOException {
+        writeVariantInformation(ctx, variantNode, getLastActiveUserEventNode(variantNode), jg);
+    }
+    private void writeVariantInformation(ReadContext ctx, Node variantNode, Node lastActiveEventNode, JsonGenerator jg) throws IOException {
+        if (!variantNode.hasLabel(VariantDatabase.getVariantLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getVariantLabel().name() + " got " + variantNode.getLabels().toString());
 
-                jg.writeStartObject();
+        jg.writeNumberField("variantNodeId", variantNode.getId());
+        jg.writeNumberField("occurrence", getGlobalVariantOccurrenceQcPass(ctx, variantNode));
 
-                Relationship addedByRelationship = eventNode.getSingleRelationship(VariantDatabase.getAddedByRelationship(), Direction.OUTGOING);
-                Relationship authorisedByRelationship = eventNode.getSingleRelationship(VariantDatabase.getAuthorisedByRelationship(), Direction.OUTGOING);
-                Relationship rejectedByRelationship = eventNode.getSingleRelationship(VariantDatabase.getRejectedByRelationship(), Direction.OUTGOING);
+        //variant class
+        if (lastActiveEventNode != null){
+            jg.writeNumberField("classification", (int) lastActiveEventNode.getProperty("classification"));
+        }
 
-                //event info
-                if (eventNode.hasLabel(VariantDatabase.getVariantPathogenicityLabel())){
-                    jg.writeStringField("event", "Variant classification");
-                    jg.writeNumberField("value", (int) eventNode.getProperty("classification"));
-                } else if (eventNode.hasLabel(VariantDatabase.getFeaturePreferenceLabel())){
-                    jg.writeStringField("event", "Preferred Transcript");
-                    jg.writeBooleanField("value", (boolean) eventNode.getProperty("preference"));
-                }
+        if (variantNode.hasLabel(VariantDatabase.getSnpLabel())) {
+            jg.writeStringField("type", "Snp");
+        } else if (variantNode.hasLabel(VariantDatabase.getIndelLabel())){
+            jg.writeStringField("type", "Indel");
+        }
 
-                if (eventNode.hasProperty("evidence")) jg.writeStringField("evidence", eventNode.getProperty("evidence").toString());
+        if (variantNode.hasProperty("variantId")) {
+            jg.writeStringField("variantId", variantNode.getProperty("variantId").toString());
+        }
+        if (variantNode.hasProperty("dbSnpId")){
+            jg.writeStringField("dbSnpId", variantNode.getProperty("dbSnpId").toString());
+        }
+        if (variantNode.hasProperty("gerp")) {
+            jg.writeNumberField("gerp", (float) variantNode.getProperty("gerp"));
+        }
+        if (variantNode.hasProperty("phyloP")) {
+            jg.writeNumberField("phyloP", (float) variantNode.getProperty("phyloP"));
+        }
+        if (variantNode.hasProperty("phastCons")) {
+            jg.writeNumberField("phastCons", (float) variantNode.getProperty("phastCons"));
+        }
+        int populationFrequencyRow = populationFrequencyStore.getRow(variantNode.getId());
+        for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()) {
+            float af = getKgAf(variantNode, populationFrequencyRow, population);
+            if (!Float.isNaN(af)){
+                jg.writeNumberField("kGPhase3" + population.toString() + "Af", (double) Math.round((af * 100) * 100d) / 100d);
+            }
+        }
+        for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()) {
+            float af = getExacAf(variantNode, populationFrequencyRow, population);
+            if (!Float.isNaN(af)){
+                jg.writeNumberField("exac" + population.toString() + "Af", (double) Math.round((af * 100) * 100d) / 100d);
+            }
+        }
+        jg.writeBooleanField("severe", variantHasSevereConsequence(variantNode));
+        if (variantNode.hasProperty("clinvar")) {
+            jg.writeArrayFieldStart("clinvar");
 
-                jg.writeObjectFieldStart("add");
-                writeLiteUserInformation(addedByRelationship.getEndNode(), jg);
-                jg.writeNumberField("date",(long) addedByRelationship.getProperty("date"));
-                jg.writeEndObject();
+            for (int clinSig : (int[]) variantNode.getProperty("clinvar")){
+                jg.writeNumber(clinSig);
+            }
 
-                if (authorisedByRelationship == null && rejectedByRelationship == null){
-                    jg.writeStringField("status", UserEventStatus.PENDING_AUTH.toString());
-                }
+            jg.writeEndArray();
+        }
 
-                if (authorisedByRelationship != null && rejectedByRelationship == null){
-                    jg.writeStringField("status", UserEventStatus.ACTIVE.toString());
+    }
+    private void writeFunctionalAnnotation(Node annotationNode, Relationship consequenceRel, Relationship biotypeRel, JsonGenerator jg) throws IOException {
 
-                    jg.writeObjectFieldStart("auth");
-                    writeLiteUserInformation(authorisedByRelationship.getEndNode(), jg);
-                    jg.writeNumberField("date",(long) authorisedByRelationship.getProperty("date"));
-                    jg.writeEndObject();
+        String[] domainSources = {"pfamDomain", "hmmpanther", "prosite", "superfamilyDomains"};
 
-                }
+        if (!annotationNode.hasLabel(VariantDatabase.getAnnotationLabel())) throw new WrongLabelException("Expected " + VariantDatabase.getAnnotationLabel().name() + " got " + annotationNode.getLabels().toString());
 
-                if (authorisedByRelationship == null && rejectedByRelationship != null){
-                    jg.writeStringField("status", UserEventStatus.REJECTED.toString());
+        jg.writeNumberField("annotationNodeId", annotationNode.getId());
 
-                    jg.writeObjectFieldStart("auth");
-                    writeLiteUserInformation(rejectedByRelationship.getEndNode(), jg);
-                    jg.writeNumberField("date",(long) rejectedByRelationship.getProperty("date"));
-                    jg.writeEndObject();
+        if (annotationNode.hasProperty("hgvsc"))
+            jg.writeStringField("hgvsc", annotationNode.getProperty("hgvsc").toString());
+        if (annotationNode.hasProperty("hgvsp"))
+            jg.writeStringField("hgvsp", annotationNode.getProperty("hgvsp").toString());
+        if (annotationNode.hasProperty("exon")) {
+            jg.writeStringField("location", annotationNode.getProperty("exon").toString());
+        } else if (annotationNode.hasProperty("intron")) {
+            jg.writeStringField("location", annotationNode.getProperty("intron").toString());
+        }
+        if (annotationNode.hasProperty("sift"))
+            jg.writeStringField("sift", annotationNode.getProperty("sift").toString());
+        if (annotationNode.hasProperty("polyphen"))
+            jg.writeStringField("polyphen", annotationNode.getProperty("polyphen").toString());
+        if (annotationNode.hasProperty("codons"))
+            jg.writeStringField("codons", annotationNode.getProperty("codons").toString());
 
+        //domains
+        for (String source : domainSources){
+
+            if (annotationNode.hasProperty(source)) {
+                String[] domains = (String[]) annotationNode.getProperty(source);
+
+                jg.writeArrayFieldStart(source);
+
+                for (String domain : domains) {
+                    jg.writeString(domain);
                 }
 
-                jg.writeEndObject();
+                jg.writeEndArray();
+            }
+
+        }
 
+        //consequence
+        jg.writeStringField("consequence", ConsequenceCatalogue.getConsequence(consequenceRel.getType()).getName());
+
+        //biotype
+        jg.writeStringField("biotype", ConsequenceCatalogue.getBiotype(biotypeRel.getType()));
+
+    }
+    private void writeEventHistory(ReadContext ctx, EventChain eventChain, JsonGenerator jg) throws IOException {
+
+        jg.writeArrayFieldStart("history");
+
+        //loop over events in this chain
+        for (EventChain.Event event : eventChain.getEvents()) {
+            Node eventNode = event.getEventNode();
+
+            jg.writeStartObject();
+
+            //event info
+            if (eventNode.hasLabel(VariantDatabase.getVariantPathogenicityLabel())){
+                jg.writeStringField("event", "Variant classification");
+                jg.writeNumberField("value", (int) eventNode.getProperty("classification"));
+            } else if (eventNode.hasLabel(VariantDatabase.getFeaturePreferenceLabel())){
+                jg.writeStringField("event", "Preferred Transcript");
+                jg.writeBooleanField("value", (boolean) eventNode.getProperty("preference"));
             }
 
+            if (eventNode.hasProperty("evidence")) jg.writeStringField("evidence", eventNode.getProperty("evidence").toString());
+
+            jg.writeObjectFieldStart("add");
+            writeLiteUserInformation(ctx, event.getAddedByUserNode(), jg);
+            jg.writeNumberField("date", event.getAddedDate());
+            jg.writeEndObject();
+
+            if (event.getStatus() != null){
+                jg.writeStringField("status", event.getStatus().toString());
+            }
+
+            if (event.getAuthUserNode() != null){
+                jg.writeObjectFieldStart("auth");
+                writeLiteUserInformation(ctx, event.getAuthUserNode(), jg);
+                jg.writeNumberField("date", event.getAuthDate());
+                jg.writeEndObject();
+            }
+
+            jg.writeEndObject();
+
         }
 
         jg.writeEndArray();
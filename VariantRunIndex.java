@@ -0,0 +1,261 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An in-memory index of which runs carry each variant, held as het and hom bitmaps of dense run ordinals
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public class VariantRunIndex {
+
+    private static final class Entry {
+        private final RunBitmap het;
+        private final RunBitmap hom;
+
+        private Entry(RunBitmap het, RunBitmap hom) {
+            this.het = het;
+            this.hom = hom;
+        }
+    }
+
+    private static final class Change {
+        private final long runInfoNodeId;
+        private final long variantNodeId;
+        private final boolean hom;
+        private final boolean added;
+
+        private Change(long runInfoNodeId, long variantNodeId, boolean hom, boolean added) {
+            this.runInfoNodeId = runInfoNodeId;
+            this.variantNodeId = variantNodeId;
+            this.hom = hom;
+            this.added = added;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Integer> runOrdinals = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Change> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final Object lock = new Object();
+
+    private long[] runInfoNodeIds = new long[256];
+    private boolean building = false;
+    private volatile boolean ready = false;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Scans every run's het/hom relationships. Must be called inside a transaction.
+     */
+    public void build(GraphDatabaseService graphDb, Log logger) {
+        HashMap<Long, int[]> hetOrdinals = new HashMap<>(), homOrdinals = new HashMap<>();
+
+        synchronized (lock) {
+            if (building) return;
+            building = true;
+        }
+
+        try {
+
+            try (ResourceIterator<Node> iter = graphDb.findNodes(VariantDatabase.getRunInfoLabel())) {
+
+                while (iter.hasNext()) {
+                    Node runInfoNode = iter.next();
+                    int ordinal = getRunOrdinal(runInfoNode.getId());
+
+                    for (Relationship inheritanceRel : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())) {
+                        append(inheritanceRel.isType(VariantDatabase.getHasHomVariantRelationship()) ? homOrdinals : hetOrdinals, inheritanceRel.getEndNode().getId(), ordinal);
+                    }
+
+                }
+
+            }
+
+            //ordinals are assigned in scan order but may already exist from an earlier build
+            HashMap<Long, Entry> built = new HashMap<>();
+            for (Map.Entry<Long, int[]> iter : hetOrdinals.entrySet()) {
+                built.put(iter.getKey(), new Entry(RunBitmap.of(Arrays.copyOfRange(iter.getValue(), 1, iter.getValue()[0] + 1)), RunBitmap.EMPTY));
+            }
+            for (Map.Entry<Long, int[]> iter : homOrdinals.entrySet()) {
+                Entry entry = built.get(iter.getKey());
+                built.put(iter.getKey(), new Entry(entry == null ? RunBitmap.EMPTY : entry.het, RunBitmap.of(Arrays.copyOfRange(iter.getValue(), 1, iter.getValue()[0] + 1))));
+            }
+
+            synchronized (lock) {
+                entries.clear();
+                entries.putAll(built);
+
+                //replay changes committed while scanning
+                Change change;
+                while ((change = pendingChanges.poll()) != null) {
+                    apply(change);
+                }
+
+                //cleared with the replay so no commit can be queued after it
+                ready = true;
+                building = false;
+            }
+
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                building = false;
+            }
+            throw e;
+        }
+
+        logger.info("Built variant run index for " + entries.size() + " variants and " + runOrdinals.size() + " runs using " + sizeInBytes() + " bytes");
+
+    }
+
+    public Integer findRunOrdinal(long runInfoNodeId) {
+        return runOrdinals.get(runInfoNodeId);
+    }
+
+    public int getRunOrdinal(long runInfoNodeId) {
+        Integer ordinal = runOrdinals.get(runInfoNodeId);
+        if (ordinal != null) return ordinal;
+
+        synchronized (runOrdinals) {
+            ordinal = runOrdinals.get(runInfoNodeId);
+            if (ordinal != null) return ordinal;
+
+            ordinal = runOrdinals.size();
+            if (ordinal == runInfoNodeIds.length) runInfoNodeIds = Arrays.copyOf(runInfoNodeIds, ordinal * 2);
+            runInfoNodeIds[ordinal] = runInfoNodeId;
+            runOrdinals.put(runInfoNodeId, ordinal);
+
+            return ordinal;
+        }
+    }
+
+    public long getRunInfoNodeId(int ordinal) {
+        synchronized (runOrdinals) {
+            return runInfoNodeIds[ordinal];
+        }
+    }
+
+    public RunBitmap getHetRuns(long variantNodeId) {
+        Entry entry = entries.get(variantNodeId);
+        return entry == null ? RunBitmap.EMPTY : entry.het;
+    }
+
+    public RunBitmap getHomRuns(long variantNodeId) {
+        Entry entry = entries.get(variantNodeId);
+        return entry == null ? RunBitmap.EMPTY : entry.hom;
+    }
+
+    public int getVariantCount() {
+        return entries.size();
+    }
+
+    public int getRunCount() {
+        return runOrdinals.size();
+    }
+
+    public long sizeInBytes() {
+        //entry, boxed key and map node overhead per variant
+        long bytes = entries.size() * (16L + 16L + 32L);
+
+        for (Entry entry : entries.values()) {
+            bytes += entry.het.sizeInBytes() + entry.hom.sizeInBytes();
+        }
+
+        return bytes + (runOrdinals.size() * (16L + 16L + 32L + 8L));
+    }
+
+    public TransactionEventHandler<?> getTransactionEventHandler() {
+        return new TransactionEventHandler.Adapter<ArrayList<Change>>() {
+
+            @Override
+            public ArrayList<Change> beforeCommit(TransactionData data) throws Exception {
+                ArrayList<Change> changes = new ArrayList<>();
+
+                try {
+                    for (Relationship relationship : data.createdRelationships()) {
+                        if (relationship.isType(VariantDatabase.getHasHetVariantRelationship()) || relationship.isType(VariantDatabase.getHasHomVariantRelationship())) {
+                            changes.add(new Change(relationship.getStartNode().getId(), relationship.getEndNode().getId(), relationship.isType(VariantDatabase.getHasHomVariantRelationship()), true));
+                        }
+                    }
+                    for (Relationship relationship : data.deletedRelationships()) {
+                        if (relationship.isType(VariantDatabase.getHasHetVariantRelationship()) || relationship.isType(VariantDatabase.getHasHomVariantRelationship())) {
+                            changes.add(new Change(relationship.getStartNode().getId(), relationship.getEndNode().getId(), relationship.isType(VariantDatabase.getHasHomVariantRelationship()), false));
+                        }
+                    }
+                } catch (NotFoundException e) {
+                    //cannot resolve the change; stop answering from the index until it is rebuilt
+                    ready = false;
+                }
+
+                return changes;
+            }
+
+            @Override
+            public void afterCommit(TransactionData data, ArrayList<Change> changes) {
+                if (changes == null) return;
+
+                for (Change change : changes) {
+                    synchronized (lock) {
+                        if (building) {
+                            pendingChanges.add(change);
+                            continue;
+                        }
+                    }
+                    apply(change);
+                }
+            }
+
+        };
+    }
+
+    private void apply(Change change) {
+        int ordinal = getRunOrdinal(change.runInfoNodeId);
+
+        while (true) {
+            Entry entry = entries.get(change.variantNodeId);
+            RunBitmap het = entry == null ? RunBitmap.EMPTY : entry.het, hom = entry == null ? RunBitmap.EMPTY : entry.hom;
+
+            if (change.hom) {
+                hom = change.added ? hom.with(ordinal) : hom.without(ordinal);
+            } else {
+                het = change.added ? het.with(ordinal) : het.without(ordinal);
+            }
+
+            if (het.isEmpty() && hom.isEmpty()) {
+                if (entry == null || entries.remove(change.variantNodeId, entry)) return;
+            } else if (entry == null) {
+                if (entries.putIfAbsent(change.variantNodeId, new Entry(het, hom)) == null) return;
+            } else if (entries.replace(change.variantNodeId, entry, new Entry(het, hom))) {
+                return;
+            }
+        }
+    }
+
+    private static void append(HashMap<Long, int[]> ordinals, long variantNodeId, int ordinal) {
+        int[] values = ordinals.get(variantNodeId);
+
+        //first slot holds the length
+        if (values == null) {
+            values = new int[4];
+            ordinals.put(variantNodeId, values);
+        } else if (values[0] + 1 == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+            ordinals.put(variantNodeId, values);
+        }
+
+        values[++values[0]] = ordinal;
+    }
+
+}
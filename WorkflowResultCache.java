@@ -0,0 +1,353 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.logging.Log;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serialised workflow responses held in a size-bounded LRU and spilled to disk, each tagged with the data version of its run when computed.
+ * A run's version is the later of the last change to that run and the last change affecting every run.
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public class WorkflowResultCache {
+
+    private static final class Entry {
+        private final long version;
+        private final byte[] result;
+
+        private Entry(long version, byte[] result) {
+            this.version = version;
+            this.result = result;
+        }
+    }
+
+    private static final class Summary {
+        private final long version;
+        private final int[] counts;
+
+        private Summary(long version, int[] counts) {
+            this.version = version;
+            this.counts = counts;
+        }
+    }
+
+    private static final class Calls {
+        private final long version;
+        private final long[] inheritanceRelIds;
+
+        private Calls(long version, long[] inheritanceRelIds) {
+            this.version = version;
+            this.inheritanceRelIds = inheritanceRelIds;
+        }
+    }
+
+    private final File directory;
+    private final String filePrefix;
+    private final long maxBytesInMemory;
+    private final long maxBytesOnDisk;
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong dataVersion = new AtomicLong();
+    private final ConcurrentHashMap<Long, Long> runVersions = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Summary> summaries = new LinkedHashMap<String, Summary>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Summary> eldest) {
+            return size() > 10000;
+        }
+    };
+    private final LinkedHashMap<Long, Calls> calls = new LinkedHashMap<Long, Calls>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Calls> eldest) {
+            return size() > 64;
+        }
+    };
+    private long bytesInMemory = 0;
+    private final Log logger;
+
+    //file sizes by name in write order; only touched on the disk writer thread
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>();
+    private long bytesOnDisk = 0;
+
+    private final ExecutorService diskWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "workflow-result-cache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Entries from a previous process are removed: writes made while the plugin was not loaded never advanced their version.
+     * Only files named for this database are read or removed, so other databases can share the directory.
+     *
+     * @param databaseId identifies the database across restarts
+     */
+    public WorkflowResultCache(File directory, String databaseId, long maxBytesInMemory, long maxBytesOnDisk, Log logger) {
+        this.directory = directory;
+        this.filePrefix = "workflow-result-" + databaseId + "-";
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.maxBytesOnDisk = maxBytesOnDisk;
+        this.logger = logger;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            logger.warn("Could not create workflow result cache directory " + directory);
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(filePrefix) && !file.delete()) logger.warn("Could not remove workflow result " + file);
+            }
+        }
+    }
+
+    public static String getKey(long runInfoNodeId, String workflowName, Long[] panelNodeIds, Long[] excludeRunInfoNodeIds) {
+        Long[] panels = panelNodeIds == null ? new Long[0] : Arrays.copyOf(panelNodeIds, panelNodeIds.length);
+        Long[] excludes = excludeRunInfoNodeIds == null ? new Long[0] : Arrays.copyOf(excludeRunInfoNodeIds, excludeRunInfoNodeIds.length);
+
+        Arrays.sort(panels);
+        Arrays.sort(excludes);
+
+        return runInfoNodeId + "|" + workflowName + "|" + Arrays.toString(panels) + "|" + Arrays.toString(excludes);
+    }
+
+    /**
+     * @return the version of changes affecting every run
+     */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+    public long getDataVersion(long runInfoNodeId) {
+        Long runVersion = runVersions.get(runInfoNodeId);
+        long version = dataVersion.get();
+        return runVersion == null ? version : Math.max(version, runVersion);
+    }
+
+    /**
+     * Makes every stored response stale; call after the change has committed
+     */
+    public void invalidateAll() {
+        long version = clock.incrementAndGet();
+
+        //versions only move forward when concurrent invalidations finish out of order
+        long current = dataVersion.get();
+        while (current < version && !dataVersion.compareAndSet(current, version)) current = dataVersion.get();
+    }
+    public void invalidateRun(long runInfoNodeId) {
+        long version = clock.incrementAndGet();
+
+        while (true) {
+            Long current = runVersions.get(runInfoNodeId);
+            if (current != null && current >= version) return;
+            if (current == null ? runVersions.putIfAbsent(runInfoNodeId, version) == null : runVersions.replace(runInfoNodeId, current, version)) return;
+        }
+    }
+
+    /**
+     * @return the stored response or null if there is none computed at this data version
+     */
+    public byte[] get(final String key, final long version) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version) return entry.result;
+
+            //versions only advance so an older entry can never be served again
+            if (entry != null && entry.version < version) {
+                entries.remove(key);
+                bytesInMemory -= entry.result.length;
+            } else if (entry != null) {
+                return null;
+            }
+        }
+
+        Entry entry = read(key);
+        if (entry == null) return null;
+
+        if (entry.version < version) {
+            diskWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    //a current response may have been written since it was read
+                    delete(key, version);
+                }
+            });
+        }
+        if (entry.version != version) return null;
+
+        putInMemory(key, entry);
+        return entry.result;
+    }
+
+    public void put(final long runInfoNodeId, final String key, final long version, final byte[] result) {
+        final Entry entry = new Entry(version, result);
+        putInMemory(key, entry);
+
+        diskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                //a newer response may have replaced this one while queued
+                if (version != getDataVersion(runInfoNodeId)) return;
+                write(key, entry);
+            }
+        });
+    }
+
+    /**
+     * @return the filter counts from a paged response or null if there are none computed at this data version
+     */
+    public int[] getSummary(String key, long version) {
+        synchronized (summaries) {
+            Summary summary = summaries.get(key);
+            return summary == null || summary.version != version ? null : summary.counts.clone();
+        }
+    }
+
+    public void putSummary(String key, long version, int[] counts) {
+        synchronized (summaries) {
+            summaries.put(key, new Summary(version, counts.clone()));
+        }
+    }
+
+    /**
+     * @return a run's call ids in iteration order or null if they were not read at this data version
+     */
+    public long[] getCalls(long runInfoNodeId, long version) {
+        synchronized (calls) {
+            Calls runCalls = calls.get(runInfoNodeId);
+            return runCalls == null || runCalls.version != version ? null : runCalls.inheritanceRelIds;
+        }
+    }
+
+    public void putCalls(long runInfoNodeId, long version, long[] inheritanceRelIds) {
+        synchronized (calls) {
+            calls.put(runInfoNodeId, new Calls(version, inheritanceRelIds));
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    public long sizeInBytes() {
+        synchronized (entries) {
+            return bytesInMemory;
+        }
+    }
+
+    private void putInMemory(String key, Entry entry) {
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) bytesInMemory -= previous.result.length;
+            bytesInMemory += entry.result.length;
+
+            //evicted entries stay on disk
+            Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+            while (bytesInMemory > maxBytesInMemory && iter.hasNext()) {
+                bytesInMemory -= iter.next().getValue().result.length;
+                iter.remove();
+            }
+        }
+    }
+
+    private Entry read(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long version = in.readLong();
+            if (!key.equals(in.readUTF())) return null;
+
+            byte[] result = new byte[in.readInt()];
+            in.readFully(result);
+
+            return new Entry(version, result);
+        } catch (IOException e) {
+            logger.warn("Could not read workflow result " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void write(String key, Entry entry) {
+        File file = getFile(key);
+        File temp = new File(directory, file.getName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeLong(entry.version);
+            out.writeUTF(key);
+            out.writeInt(entry.result.length);
+            out.write(entry.result);
+        } catch (IOException e) {
+            logger.warn("Could not write workflow result " + file + ": " + e.getMessage());
+            return;
+        }
+
+        if (!temp.renameTo(file)) {
+            logger.warn("Could not replace workflow result " + file);
+            if (!temp.delete()) logger.warn("Could not remove workflow result " + temp);
+            return;
+        }
+
+        Long previous = files.remove(file.getName());
+        if (previous != null) bytesOnDisk -= previous;
+        files.put(file.getName(), file.length());
+        bytesOnDisk += file.length();
+
+        //drop the responses written longest ago once over budget
+        Iterator<Map.Entry<String, Long>> iter = files.entrySet().iterator();
+        while (bytesOnDisk > maxBytesOnDisk && iter.hasNext()) {
+            Map.Entry<String, Long> eldest = iter.next();
+            iter.remove();
+            bytesOnDisk -= eldest.getValue();
+
+            File eldestFile = new File(directory, eldest.getKey());
+            if (!eldestFile.delete()) logger.warn("Could not remove workflow result " + eldestFile);
+        }
+    }
+
+    private void delete(String key, long version) {
+        File file = getFile(key);
+        if (!file.isFile()) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readLong() >= version) return;
+        } catch (IOException e) {
+            logger.warn("Could not read workflow result " + file + ": " + e.getMessage());
+        }
+
+        Long previous = files.remove(file.getName());
+        if (previous != null) bytesOnDisk -= previous;
+
+        if (!file.delete()) logger.warn("Could not remove workflow result " + file);
+    }
+
+    private File getFile(String key) {
+        try {
+            StringBuilder name = new StringBuilder(filePrefix);
+
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charset.forName("UTF-8")))) {
+                name.append(String.format("%02x", b));
+            }
+
+            return new File(directory, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package nhs.genetics.cardiff;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.NullLog;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Appends events to one subject from many threads and checks the chain never forks
+ *
+ * @version 1.0
+ * @since   2026-10-16
+ */
+public class UserEventAppendStressTest {
+
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 200;
+
+    private static final RelationshipType hasLastUserEventRelationship = DynamicRelationshipType.withName("HAS_LAST_USER_EVENT");
+    private static final RelationshipType hasLastActiveUserEventRelationship = DynamicRelationshipType.withName("HAS_LAST_ACTIVE_USER_EVENT");
+
+    private GraphDatabaseService graphDb;
+    private VariantDatabasePlugin plugin;
+    private long userNodeId, variantNodeId;
+
+    @Before
+    public void setUp() {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        plugin = new VariantDatabasePlugin(graphDb, NullLog.getInstance());
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Node userNode = graphDb.createNode(VariantDatabase.getUserLabel());
+            userNode.setProperty("admin", true);
+            userNode.setProperty("fullName", "Stress Test");
+
+            userNodeId = userNode.getId();
+            variantNodeId = graphDb.createNode(VariantDatabase.getVariantLabel()).getId();
+
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        graphDb.shutdown();
+    }
+
+    /**
+     * Every thread tries to append in each round; the pending check must let exactly one through, which is then authorised
+     */
+    @Test
+    public void concurrentAppendsKeepChainLinear() throws Exception {
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger authFailed = new AtomicInteger();
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        final CyclicBarrier finish = new CyclicBarrier(THREADS, new Runnable() {
+            @Override
+            public void run() {
+                if (authoriseLastEvent() != 200) authFailed.incrementAndGet();
+            }
+        });
+        final String json = "{\"variantNodeId\":" + variantNodeId + ",\"userNodeId\":" + userNodeId + ",\"classification\":3}";
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        int[] acceptedPerRound = new int[ROUNDS];
+
+        try {
+            for (int round = 0; round < ROUNDS; ++round) {
+                accepted.set(0);
+                final CountDownLatch done = new CountDownLatch(THREADS);
+
+                for (int i = 0; i < THREADS; ++i) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                start.await();
+
+                                int status = plugin.variantAddPathogenicity(json).getStatus();
+                                if (status == 200) {
+                                    accepted.incrementAndGet();
+                                } else if (status != 400) {
+                                    failed.incrementAndGet();
+                                }
+
+                                finish.await();
+                            } catch (InterruptedException | BrokenBarrierException e) {
+                                failed.incrementAndGet();
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+
+                assertTrue("Round " + round + " timed out", done.await(60, TimeUnit.SECONDS));
+                acceptedPerRound[round] = accepted.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("Unexpected errors appending events", 0, failed.get());
+        assertEquals("Authorisations refused", 0, authFailed.get());
+        for (int round = 0; round < ROUNDS; ++round) {
+            assertEquals("Appends accepted in round " + round, 1, acceptedPerRound[round]);
+        }
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Node variantNode = graphDb.getNodeById(variantNodeId);
+            Node node = variantNode;
+            int events = 0;
+
+            //walk the chain checking no node has more than one successor or predecessor
+            while (node.hasRelationship(Direction.OUTGOING, VariantDatabase.getHasUserEventRelationship())) {
+                assertEquals("Chain forks at node " + node.getId(), 1, node.getDegree(VariantDatabase.getHasUserEventRelationship(), Direction.OUTGOING));
+
+                node = node.getSingleRelationship(VariantDatabase.getHasUserEventRelationship(), Direction.OUTGOING).getEndNode();
+                assertEquals("Chain merges at node " + node.getId(), 1, node.getDegree(VariantDatabase.getHasUserEventRelationship(), Direction.INCOMING));
+
+                events++;
+            }
+
+            assertEquals(ROUNDS, events);
+            assertEquals(node, variantNode.getSingleRelationship(hasLastUserEventRelationship, Direction.OUTGOING).getEndNode());
+            assertEquals(node, variantNode.getSingleRelationship(hasLastActiveUserEventRelationship, Direction.OUTGOING).getEndNode());
+            assertEquals(node, EventChain.read(variantNode).getLastEventNode());
+        }
+    }
+
+    /**
+     * @return the status of the authorisation, or -1 if nothing was appended to authorise
+     */
+    private int authoriseLastEvent() {
+        long eventNodeId;
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Relationship lastUserEventRelationship = graphDb.getNodeById(variantNodeId).getSingleRelationship(hasLastUserEventRelationship, Direction.OUTGOING);
+            if (lastUserEventRelationship == null) return -1;
+            eventNodeId = lastUserEventRelationship.getEndNode().getId();
+        }
+
+        return plugin.adminAuthEvent("{\"eventNodeId\":" + eventNodeId + ",\"userNodeId\":" + userNodeId + ",\"addOrRemove\":true}").getStatus();
+    }
+
+}